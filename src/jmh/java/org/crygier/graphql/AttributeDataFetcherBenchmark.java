@@ -0,0 +1,83 @@
+package org.crygier.graphql;
+
+import graphql.Scalars;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.DataFetchingEnvironmentBuilder;
+import graphql.schema.PropertyDataFetcher;
+import org.crygier.graphql.model.starwars.Human;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading a basic attribute of a loaded entity through the {@link AttributeDataFetcher} with graphql-java's
+ * PropertyDataFetcher, which the basic fields used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributeDataFetcherBenchmark {
+
+	private ConfigurableApplicationContext context;
+
+	private DataFetcher attributeDataFetcher;
+
+	private DataFetcher propertyDataFetcher;
+
+	private DataFetchingEnvironment environment;
+
+	@Setup
+	public void setup() {
+		context = new SpringApplicationBuilder(TestApplication.class).web(false).run();
+		EntityManagerFactory entityManagerFactory = context.getBean(EntityManagerFactory.class);
+		MetamodelIndex metamodelIndex = new MetamodelIndex(entityManagerFactory.getMetamodel());
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+
+		try {
+			Human human = entityManager.find(Human.class, 1000);
+
+			attributeDataFetcher = new AttributeDataFetcher(metamodelIndex, Human.class,
+					metamodelIndex.getAttribute(entityManagerFactory.getMetamodel().entity(Human.class), "homePlanet"));
+			propertyDataFetcher = new PropertyDataFetcher("homePlanet");
+			environment = DataFetchingEnvironmentBuilder.newDataFetchingEnvironment()
+					.source(human)
+					.fieldType(Scalars.GraphQLString)
+					.build();
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public Object attributeDataFetcher() {
+		return attributeDataFetcher.get(environment);
+	}
+
+	@Benchmark
+	public Object propertyDataFetcher() {
+		return propertyDataFetcher.get(environment);
+	}
+}
@@ -0,0 +1,103 @@
+package org.crygier.graphql;
+
+import graphql.schema.Coercing;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Converts an argument value (as written in the query, or sent as a variable) to the Java type of the attribute it is
+ * compared with.  The conversion is chosen once per type, when a {@link QueryPlan} binds an argument of that type, so
+ * binding a value is a single call rather than a search through the kinds of values and the metamodel.
+ */
+public final class ArgumentConverter {
+
+	private static final Map<Class<?>, ArgumentConverter> converters = new ConcurrentHashMap<>();
+
+	private final Class<?> javaType;
+
+	private final Function<Object, Object> conversion;
+
+	private ArgumentConverter(Class<?> javaType) {
+		this.javaType = javaType;
+		this.conversion = createConversion(javaType);
+	}
+
+	/**
+	 * @return the (shared) converter to the given type, which must not be primitive
+	 */
+	public static ArgumentConverter forType(Class<?> javaType) {
+		return converters.computeIfAbsent(javaType, ArgumentConverter::new);
+	}
+
+	public Class<?> getJavaType() {
+		return javaType;
+	}
+
+	/**
+	 * Values that can't be converted are returned as they are, for the JPA provider to reject
+	 */
+	public Object convert(Object value) {
+		if (value == null || javaType.isInstance(value)) {
+			return value;
+		}
+
+		return conversion.apply(value);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Function<Object, Object> createConversion(Class<?> javaType) {
+
+		if (Integer.class.equals(javaType)) {
+			return number(Number::intValue);
+		} else if (Long.class.equals(javaType)) {
+			return number(Number::longValue);
+		} else if (Short.class.equals(javaType)) {
+			return number(Number::shortValue);
+		} else if (Double.class.equals(javaType)) {
+			return number(Number::doubleValue);
+		} else if (Float.class.equals(javaType)) {
+			return number(Number::floatValue);
+		} else if (Byte.class.equals(javaType)) {
+			return number(Number::byteValue);
+		} else if (BigDecimal.class.equals(javaType)) {
+			return number(it -> new BigDecimal(it.toString()));
+		} else if (BigInteger.class.equals(javaType)) {
+			return number(it -> new BigInteger(it.toString()));
+		} else if (UUID.class.equals(javaType)) {
+			return value -> value instanceof String ? UUID.fromString((String) value) : value;
+		} else if (javaType.isEnum()) {
+			Class<? extends Enum> enumType = (Class<? extends Enum>) javaType;
+			return value -> value instanceof String ? Enum.valueOf(enumType, (String) value) : value;
+		} else if (Date.class.equals(javaType)) {
+			return scalar(JavaScalars.GraphQLDate.getCoercing());
+		} else if (LocalDateTime.class.equals(javaType)) {
+			return scalar(JavaScalars.GraphQLLocalDateTime.getCoercing());
+		} else if (LocalDate.class.equals(javaType)) {
+			return scalar(JavaScalars.GraphQLLocalDate.getCoercing());
+		}
+
+		return Function.identity();
+	}
+
+	private static Function<Object, Object> number(Function<Number, Object> conversion) {
+		return value -> value instanceof Number ? conversion.apply((Number) value) : value;
+	}
+
+	/**
+	 * The date scalars parse strings, and (epoch) Longs or Integers, but literals are parsed into BigIntegers
+	 */
+	private static Function<Object, Object> scalar(Coercing coercing) {
+		return value -> {
+			Object parsed = coercing.parseValue(value instanceof BigInteger ? ((BigInteger) value).longValue() : value);
+			return parsed != null ? parsed : value;
+		};
+	}
+}
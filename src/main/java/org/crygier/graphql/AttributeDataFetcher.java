@@ -0,0 +1,40 @@
+package org.crygier.graphql;
+
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.PropertyDataFetcher;
+
+/**
+ * Reads a basic attribute through its indexed method handle, falling back to the PropertyDataFetcher for other sources
+ * (projected rows, flattened embeddables) and for attributes that can't be read directly.
+ */
+public class AttributeDataFetcher implements DataFetcher {
+
+	private final MetamodelIndex metamodelIndex;
+
+	private final Class<?> javaType;
+
+	private final MetamodelIndex.IndexedAttribute attribute;
+
+	private final PropertyDataFetcher propertyDataFetcher;
+
+	public AttributeDataFetcher(MetamodelIndex metamodelIndex, Class<?> javaType, MetamodelIndex.IndexedAttribute attribute) {
+		this.metamodelIndex = metamodelIndex;
+		this.javaType = javaType;
+		this.attribute = attribute;
+		this.propertyDataFetcher = new PropertyDataFetcher(attribute.getAttribute().getName());
+	}
+
+	@Override
+	public Object get(DataFetchingEnvironment environment) {
+		Object source = environment.getSource();
+
+		if (source == null) {
+			return null;
+		} else if (attribute.isReadable() && javaType.isInstance(source)) {
+			return attribute.getValue(metamodelIndex.unproxy(source));
+		}
+
+		return propertyDataFetcher.get(environment);
+	}
+}
@@ -1,19 +1,34 @@
 package org.crygier.graphql;
 
+import graphql.execution.ValuesResolver;
 import graphql.language.Argument;
 import graphql.language.Field;
 import graphql.language.IntValue;
 import graphql.language.ObjectValue;
 import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.DataFetchingEnvironmentBuilder;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLObjectType;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.Attribute;
 import javax.persistence.metamodel.EntityType;
 import javax.persistence.metamodel.SingularAttribute;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
 public class ExtendedJpaDataFetcher extends JpaDataFetcher {
 
@@ -21,43 +36,315 @@ public class ExtendedJpaDataFetcher extends JpaDataFetcher {
         super(entityManager, entityType);
     }
 
+    public ExtendedJpaDataFetcher(EntityManager entityManager, EntityType<?> entityType, QueryPlanCache queryPlanCache) {
+        super(entityManager, entityType, queryPlanCache);
+    }
+
+    public ExtendedJpaDataFetcher(EntityManager entityManager, EntityType<?> entityType, QueryPlanCache queryPlanCache, MetamodelIndex metamodelIndex) {
+        super(entityManager, entityType, queryPlanCache, metamodelIndex);
+    }
+
     @Override
     public Object get(DataFetchingEnvironment environment) {
         Field field = environment.getFields().iterator().next();
-        PaginationResult paginationResult = null;
+
+        if (environment.getArgument(GraphQLSchemaBuilder.FIRST_PARAM_NAME) != null || environment.getArgument(GraphQLSchemaBuilder.AFTER_PARAM_NAME) != null) {
+            return getKeysetPage(environment, field);
+        }
 
         PageInformation pageInformation = extractPageInformation(environment, field);
+        PaginationResult paginationResult = new PaginationResult(null, null, pageInformation.size, pageInformation.page, environment.getSource(), field.getName());
+
+        JpaExecutionContext context = getExecutionContext(environment);
+        boolean hasNextPage = getSelectionField(field, "hasNextPage").isPresent();
+
+        if (context != null && context.getCountExecutor() != null && isTotalSelected(field) && getSelectionField(field, "content").isPresent() && isRootQuery(environment)) {
+            // the count runs on its own EntityManager while the page is loaded on the request's
+            CompletableFuture<Long> totalElements = getTotalElementsConcurrently(environment, field, context.getCountExecutor());
+
+            loadOffsetPage(environment, field, paginationResult, hasNextPage);
+            applyTotals(environment, field, paginationResult, join(totalElements));
+        } else {
+            // the totals cost a count query, which is only run when they are selected
+            applyTotals(environment, field, paginationResult, null);
+
+            if (hasNextPage) {
+                loadOffsetPage(environment, field, paginationResult, true);
+            }
+        }
+
+        return paginationResult;
+    }
+
+    /**
+     * Loads the page, when probing along with one more row, which tells whether there is a next page without counting
+     * all of the results.
+     */
+    private void loadOffsetPage(DataFetchingEnvironment environment, Field field, PaginationResult paginationResult, boolean probe) {
+        Field contentField = getSelectionField(field, "content").orElseGet(() -> new Field("content"));
+        DataFetchingEnvironment contentEnvironment = getContentEnvironment(environment, contentField, paginationResult);
+        int size = paginationResult.getPageSize();
+
+        TypedQuery typedQuery = getQuery(contentEnvironment, contentField);
+        typedQuery.setFirstResult((paginationResult.getPage() - 1) * size);
+
+        if (size < Integer.MAX_VALUE) {
+            typedQuery.setMaxResults(probe ? size + 1 : size);
+        }
+
+        List<Object> content = new ArrayList<>(getResultList(environment, typedQuery));
+        boolean hasNextPage = content.size() > size;
+
+        paginationResult.setContent(hasNextPage ? new ArrayList<>(content.subList(0, size)) : content);
+
+        if (probe) {
+            paginationResult.setHasNextPage(hasNextPage);
+        }
+    }
+
+    /**
+     * Counts on a separate EntityManager (and so connection), so that the count and the page are queried at the same
+     * time.  Each runs in its own transaction, so with concurrent writes the totals may not exactly match the page.
+     */
+    private CompletableFuture<Long> getTotalElementsConcurrently(DataFetchingEnvironment environment, Field field, Executor executor) {
+        Field contentField = getSelectionField(field, "content").get();
+        List<Argument> arguments = getArguments(contentField);
+
+        //the plan is shared, only the query is created on the other EntityManager
+        QueryPlan plan = getCountQueryPlan(environment, contentField, arguments);
+        EntityManagerFactory entityManagerFactory = entityManager.getEntityManagerFactory();
+
+        return CompletableFuture.supplyAsync(() -> {
+            EntityManager countEntityManager = entityManagerFactory.createEntityManager();
+
+            try {
+                TypedQuery<Long> query = createTypedQuery(countEntityManager, environment, plan, arguments);
+                query.setHint(READ_ONLY_HINT, Boolean.TRUE);
+
+                return getSingleResult(environment, query);
+            } finally {
+                countEntityManager.close();
+            }
+        }, executor);
+    }
+
+    private Long join(CompletableFuture<Long> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    private boolean isTotalSelected(Field field) {
+        return getSelectionField(field, "totalElements").isPresent() || getSelectionField(field, "totalPages").isPresent();
+    }
+
+    /**
+     * @param totalElements the total when it was already counted, otherwise it's counted if needed
+     */
+    private void applyTotals(DataFetchingEnvironment environment, Field field, PaginationResult paginationResult, Long totalElements) {
+        Optional<Field> estimatedSelection = getSelectionField(field, "estimatedTotalElements");
+
+        if (isTotalSelected(field)) {
+            if (totalElements == null) {
+                totalElements = getTotalElements(environment, field);
+            }
+
+            Integer size = paginationResult.getPageSize();
+            paginationResult.setTotalElements(totalElements);
+            paginationResult.setTotalPages(size == null || size == 0 ? 1 : ((Double) Math.ceil(totalElements / (double) size)).longValue());
+        }
+
+        if (estimatedSelection.isPresent()) {
+            JpaExecutionContext context = getExecutionContext(environment);
+            RowCountEstimator estimator = context != null ? context.getRowCountEstimator() : null;
+            Long estimate = estimator != null ? estimator.estimateRowCount(entityType, environment) : null;
+
+            // without an estimate, the exact count is the best estimate
+            if (estimate == null) {
+                estimate = totalElements != null ? totalElements : getTotalElements(environment, field);
+            }
+
+            paginationResult.setEstimatedTotalElements(estimate);
+        }
+    }
+
+    private Long getTotalElements(DataFetchingEnvironment environment, Field field) {
+        return getSelectionField(field, "content")
+                .map(contentField -> getSingleResult(environment, getCountQuery(environment, contentField)))
+                // if no "content" was selected an empty Field can be used
+                .orElseGet(() -> getSingleResult(environment, getCountQuery(environment, new Field())));
+    }
+
+    /**
+     * Loads the page after the 'after' cursor, by filtering on the sort key and identifier rather than skipping rows, so
+     * that every page costs the same no matter how deep it is.  The content is loaded here (rather than by the content
+     * field) so that endCursor and hasNextPage are known whatever order the fields are selected in.
+     */
+    private PaginationResult getKeysetPage(DataFetchingEnvironment environment, Field field) {
+        Integer first = environment.getArgument(GraphQLSchemaBuilder.FIRST_PARAM_NAME);
+        String after = environment.getArgument(GraphQLSchemaBuilder.AFTER_PARAM_NAME);
+
+        if (first != null && first < 0) {
+            throw new IllegalArgumentException("'first' must not be negative");
+        }
+
+        if (!entityType.hasSingleIdAttribute()) {
+            throw new IllegalArgumentException("Keyset pagination requires " + entityType.getName() + " to have a single identifier");
+        }
+
+        Field contentField = getSelectionField(field, "content").orElseGet(() -> new Field("content"));
+        PaginationResult paginationResult = new PaginationResult(null, null, first, null, environment.getSource(), field.getName());
+        DataFetchingEnvironment contentEnvironment = getContentEnvironment(environment, contentField, paginationResult);
+
+        Optional<Field> sortField = getKeysetSortField(contentField);
+        SingularAttribute sortAttribute = sortField.map(it -> (SingularAttribute) entityType.getAttribute(it.getName())).orElse(null);
+        String sortName = sortAttribute != null ? sortAttribute.getName() : null;
+        Class sortType = sortAttribute != null ? sortAttribute.getJavaType() : null;
+        boolean descending = sortField.map(this::isDescending).orElse(false);
+
+        SingularAttribute idAttribute = metamodelIndex.getIdAttribute(entityType);
+        Class idType = idAttribute.getJavaType();
+
+        KeysetCursor cursor = after != null ? KeysetCursor.decode(after, sortName, sortType, idType) : null;
+        boolean afterNull = cursor != null && sortAttribute != null && cursor.getSortValue() == null;
+
+        List<Argument> arguments = getArguments(contentField);
+        String queryType = "keyset:" + (descending ? "desc" : "asc") + (after != null ? (afterNull ? ":afterNull" : ":after") : "") + getFetchMode(contentEnvironment);
+
+        QueryPlan plan = getQueryPlan(queryType, contentEnvironment, contentField, () -> {
+            CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+            CriteriaQuery<Object> query = cb.createQuery((Class) entityType.getJavaType());
+            QueryPlan result = new QueryPlan(query, arguments);
+            Root root = buildCriteriaQuery(contentEnvironment, contentField, cb, query, true, result);
+            orderByKeyset(cb, query, root, sortAttribute, descending);
+
+            if (after != null) {
+                Predicate keyset = getKeysetPredicate(cb, root, sortAttribute, descending, afterNull, result);
+                query.where(query.getRestriction() != null ? cb.and(query.getRestriction(), keyset) : keyset);
+            }
+
+            return result;
+        });
+
+        TypedQuery typedQuery = createTypedQuery(contentEnvironment, plan, arguments);
 
-        // See which fields we're requesting
-        Optional<Field> totalPagesSelection = getSelectionField(field, "totalPages");
-        Optional<Field> totalElementsSelection = getSelectionField(field, "totalElements");
-        Optional<Field> contentSelection = getSelectionField(field, "content");
+        if (cursor != null) {
+            setKeysetParameters(typedQuery, plan, cursor, sortAttribute != null && !afterNull);
+        }
+
+        if (first != null) {
+            //one more row than requested tells whether there is a next page
+            typedQuery.setMaxResults(first < Integer.MAX_VALUE ? first + 1 : first);
+        }
+
+        List<Object> content = new ArrayList<>(getResultList(environment, typedQuery));
+        boolean hasNextPage = first != null && content.size() > first;
+
+        if (hasNextPage) {
+            content = new ArrayList<>(content.subList(0, first));
+        }
 
-        if (totalElementsSelection.isPresent() || totalPagesSelection.isPresent()) {
-            final Long totalElements = contentSelection
-                    .map(contentField -> getCountQuery(environment, contentField).getSingleResult())
-                    // if no "content" was selected an empty Field can be used
-                    .orElseGet(() -> getCountQuery(environment, new Field()).getSingleResult());
+        paginationResult.setContent(content);
+        paginationResult.setHasNextPage(hasNextPage);
 
-			paginationResult = new PaginationResult(totalElements, 
-					((Double) Math.ceil(totalElements / (double) pageInformation.size)).longValue(), 
-					pageInformation.size, pageInformation.page, environment.getSource(), field.getName());
+        if (!content.isEmpty()) {
+            paginationResult.setEndCursor(getKeyset(content.get(content.size() - 1), sortAttribute).encode(sortName, sortType, idType));
+        } else {
+            paginationResult.setEndCursor(after);
         }
 
+        applyTotals(environment, field, paginationResult, null);
+
         return paginationResult;
     }
 
+    /**
+     * The field of the content that the page is ordered by, if any.  Keyset pagination needs a total order, which this
+     * field (followed by the identifier) provides, so only a single, basic field can be ordered by.
+     */
+    private Optional<Field> getKeysetSortField(Field contentField) {
+        if (contentField.getSelectionSet() == null) {
+            return Optional.empty();
+        }
+
+        List<Field> orderedFields = contentField.getSelectionSet().getSelections().stream()
+                .filter(it -> it instanceof Field).map(it -> (Field) it)
+                .filter(it -> it.getArguments().stream().anyMatch(arg -> "orderBy".equals(arg.getName())))
+                .collect(Collectors.toList());
+
+        if (orderedFields.size() > 1) {
+            throw new IllegalArgumentException("Keyset pagination can only be ordered by a single field");
+        }
+
+        if (orderedFields.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Attribute attribute = entityType.getAttribute(orderedFields.get(0).getName());
+
+        if (!(attribute instanceof SingularAttribute) || attribute.getPersistentAttributeType() != Attribute.PersistentAttributeType.BASIC) {
+            throw new IllegalArgumentException("Keyset pagination can only be ordered by a basic field, not " + attribute.getName());
+        }
+
+        return Optional.of(orderedFields.get(0));
+    }
+
+    /**
+     * An environment for running the query of the content field, with its arguments resolved the way graphql-java would
+     * when fetching the content field itself.
+     */
+    private DataFetchingEnvironment getContentEnvironment(DataFetchingEnvironment environment, Field contentField, PaginationResult source) {
+        GraphQLFieldDefinition contentDefinition = ((GraphQLObjectType) environment.getFieldType()).getFieldDefinition("content");
+        JpaExecutionContext context = getExecutionContext(environment);
+        Map<String, Object> variables = context != null ? context.getVariables() : Collections.emptyMap();
+
+        return DataFetchingEnvironmentBuilder.newDataFetchingEnvironment(environment)
+                .source(source)
+                .arguments(new ValuesResolver().getArgumentValues(contentDefinition.getArguments(), contentField.getArguments(), variables))
+                .fields(Collections.singletonList(contentField))
+                .fieldDefinition(contentDefinition)
+                .fieldType(contentDefinition.getType())
+                .parentType(environment.getFieldType())
+                .build();
+    }
+
+    @Override
+    public void prepare(DataFetchingEnvironment environment) {
+        Field field = environment.getFields().iterator().next();
+
+        if (isRootQuery(environment) && (getSelectionField(field, "totalElements").isPresent() || getSelectionField(field, "totalPages").isPresent())) {
+            Field countField = getSelectionField(field, "content").orElseGet(Field::new);
+            getCountQueryPlan(environment, countField, getArguments(countField));
+        }
+    }
+
     private TypedQuery<Long> getCountQuery(DataFetchingEnvironment environment, Field field) {
-        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-		
-        CriteriaQuery query = cb.createQuery(Long.class);
-		Root root = buildCriteriaQuery(environment, field, cb, query, false);
-		
-		SingularAttribute idAttribute = entityType.getId(Object.class);
-        query.select(cb.count(root.get(idAttribute.getName())));
-		
+        List<Argument> arguments = getArguments(field);
+        QueryPlan plan = getCountQueryPlan(environment, field, arguments);
+
 		//TODO: does this need to ensure a distinct is done?
-        return entityManager.createQuery(query);
+        return createTypedQuery(environment, plan, arguments);
+    }
+
+    private QueryPlan getCountQueryPlan(DataFetchingEnvironment environment, Field field, List<Argument> arguments) {
+        return getQueryPlan("count", environment, field, () -> {
+            CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+
+            CriteriaQuery query = cb.createQuery(Long.class);
+            QueryPlan result = new QueryPlan(query, arguments);
+            Root root = buildCriteriaQuery(environment, field, cb, query, false, result);
+
+            SingularAttribute idAttribute = metamodelIndex.getIdAttribute(entityType);
+            query.select(idAttribute != null ? cb.count(root.get(idAttribute.getName())) : cb.count(root));
+
+            return result;
+        });
     }
 
     private Optional<Field> getSelectionField(Field field, String fieldName) {
@@ -67,8 +354,7 @@ public class ExtendedJpaDataFetcher extends JpaDataFetcher {
     private PageInformation extractPageInformation(DataFetchingEnvironment environment, Field field) {
         Optional<Argument> paginationRequest = field.getArguments().stream().filter(it -> GraphQLSchemaBuilder.PAGINATION_REQUEST_PARAM_NAME.equals(it.getName())).findFirst();
         if (paginationRequest.isPresent()) {
-            field.getArguments().remove(paginationRequest.get());
-
+            //the document may be cached and shared with other executions, so the argument is only read, never removed
             ObjectValue paginationValues = (ObjectValue) paginationRequest.get().getValue();
             IntValue page = (IntValue) paginationValues.getObjectFields().stream().filter(it -> "page".equals(it.getName())).findFirst().get().getValue();
             IntValue size = (IntValue) paginationValues.getObjectFields().stream().filter(it -> "size".equals(it.getName())).findFirst().get().getValue();
@@ -79,6 +365,7 @@ public class ExtendedJpaDataFetcher extends JpaDataFetcher {
         return new PageInformation(1, Integer.MAX_VALUE);
     }
 
+
     private static final class PageInformation {
         public Integer page;
         public Integer size;
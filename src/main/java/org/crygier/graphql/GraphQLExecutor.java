@@ -2,19 +2,63 @@ package org.crygier.graphql;
 
 import graphql.ExecutionInput;
 import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
 import graphql.GraphQL;
+import graphql.GraphQLError;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.language.Field;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.schema.GraphQLSchema;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
 import javax.transaction.Transactional;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public class GraphQLExecutor {
 
+    /**
+     * The content type of the responses written by {@link #executeIncremental(String, Map, Writer)}
+     */
+    public static final String INCREMENTAL_CONTENT_TYPE = "multipart/mixed; boundary=\"-\"";
+
     @Resource
     private EntityManager entityManager;
     private GraphQL graphQL;
+    private boolean batchFetching;
+    private RowCountEstimator rowCountEstimator;
+    private Executor countExecutor;
+    private boolean projection;
+    private boolean fetchJoins;
+    private boolean entityGraphs;
+    private Executor rootFieldExecutor;
+    private Executor requestExecutor;
+    private QueryLimiter queryLimiter;
+    private QueryCoalescer queryCoalescer;
+    private int streamChunkSize = 1000;
+    private boolean queryMemoization;
+    private final QueryMemoStatistics queryMemoStatistics = new QueryMemoStatistics();
+    private final QueryPlanCache queryPlanCache = new QueryPlanCache();
+    private final PreparsedDocumentCache documentCache = new PreparsedDocumentCache();
+    private PersistedQueryRegistry persistedQueries;
+    private String persistedQueriesFile;
 
     protected GraphQLExecutor() {}
     public GraphQLExecutor(EntityManager entityManager) {
@@ -24,20 +68,503 @@ public class GraphQLExecutor {
 
     @PostConstruct
     protected void createGraphQL() {
-        if (entityManager != null)
-            this.graphQL = GraphQL.newGraphQL(new GraphQLSchemaBuilder(entityManager).getGraphQLSchema()).build();
+        if (entityManager != null) {
+            GraphQLSchema schema = new GraphQLSchemaBuilder(entityManager, queryPlanCache).getGraphQLSchema();
+            this.persistedQueries = new PersistedQueryRegistry(schema, documentCache);
+            this.persistedQueries.setContextSupplier(() -> createExecutionContext(Collections.emptyMap()));
+            this.graphQL = GraphQL.newGraphQL(schema)
+                    .queryExecutionStrategy(new IncrementalExecutionStrategy(entityManager.getEntityManagerFactory()))
+                    .preparsedDocumentProvider(persistedQueries)
+                    .build();
+
+            if (persistedQueriesFile != null) {
+                try {
+                    persistedQueries.load(Paths.get(persistedQueriesFile));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to load the persisted queries from " + persistedQueriesFile, e);
+                }
+            }
+        }
     }
 
     @Transactional
     public ExecutionResult execute(String query) {
-        return graphQL.execute(query);
+        return graphQL.execute(ExecutionInput.newExecutionInput().query(query).context(createExecutionContext(Collections.emptyMap())).build());
     }
 
     @Transactional
     public ExecutionResult execute(String query, Map<String, Object> arguments) {
         if (arguments == null)
-            return graphQL.execute(query);
-        return graphQL.execute(ExecutionInput.newExecutionInput().query(query).variables(arguments).build());
+            return execute(query);
+        return graphQL.execute(ExecutionInput.newExecutionInput().query(query).variables(arguments).context(createExecutionContext(arguments)).build());
+    }
+
+    /**
+     * Shares the execution with identical concurrent requests, when a query coalescer is set and the query only reads.
+     * Only executions on an EntityManager of their own are shared, as the caller's transaction may hold uncommitted writes.
+     */
+    private ExecutionResult coalesce(String query, Map<String, Object> arguments, Supplier<ExecutionResult> execution) {
+        if (queryCoalescer == null) {
+            return execution.get();
+        }
+
+        OperationDefinition operation = getOperation(query);
+
+        if (operation == null || operation.getOperation() != OperationDefinition.Operation.QUERY) {
+            return execution.get();
+        }
+
+        return queryCoalescer.execute(query, arguments, execution);
+    }
+
+    /**
+     * Executes a persisted query, following Apollo's automatic persisted queries protocol: when only the hash is sent,
+     * the registered query is executed (or a PersistedQueryNotFound error returned), and when both are sent the query is
+     * registered for later requests before being executed.
+     */
+    @Transactional
+    public ExecutionResult execute(String query, String queryHash, Map<String, Object> arguments) {
+        if (queryHash == null)
+            return execute(query, arguments);
+
+        if (query == null) {
+            query = persistedQueries.getQuery(queryHash);
+
+            if (query == null)
+                return new ExecutionResultImpl(new PersistedQueryError(PersistedQueryError.PERSISTED_QUERY_NOT_FOUND));
+        } else if (!queryHash.equalsIgnoreCase(PersistedQueryRegistry.hash(query))) {
+            return new ExecutionResultImpl(new PersistedQueryError(PersistedQueryError.HASH_MISMATCH));
+        } else if (!persistedQueries.contains(queryHash) && persistedQueries.size() < persistedQueries.getMaximumSize()) {
+            try {
+                persistedQueries.register(query);
+            } catch (IllegalArgumentException e) {
+                //invalid queries aren't persisted, executing them reports the errors
+            }
+        }
+
+        return execute(query, arguments);
+    }
+
+    /**
+     * Executes the query on the request executor (or the calling thread when there is none), on an EntityManager of its
+     * own that is closed once the result is complete.  The query runs outside of the caller's transaction, so only
+     * committed data is read, and nothing is written.
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(String query, Map<String, Object> arguments) {
+        Executor executor = requestExecutor != null ? requestExecutor : Runnable::run;
+        return CompletableFuture.supplyAsync(() -> executeOnEntityManager(query, arguments != null ? arguments : Collections.emptyMap()), executor);
+    }
+
+    private ExecutionResult executeOnEntityManager(String query, Map<String, Object> arguments) {
+        return coalesce(query, arguments, () -> {
+            EntityManager requestEntityManager = createRequestEntityManager();
+
+            try {
+                return executeOnEntityManager(query, arguments, requestEntityManager, null);
+            } finally {
+                requestEntityManager.close();
+            }
+        });
+    }
+
+    private ExecutionResult executeOnEntityManager(String query, Map<String, Object> arguments, EntityManager requestEntityManager, StreamWindow window) {
+        JpaExecutionContext context = createExecutionContext(arguments);
+        context.setEntityManager(requestEntityManager);
+        context.setStreamWindow(window);
+
+        return graphQL.execute(ExecutionInput.newExecutionInput().query(query).variables(arguments).context(context).build());
+    }
+
+    /**
+     * Executes the query, handing the initial result and then the @defer and @stream payloads to the consumer as they
+     * are resolved, on an EntityManager of its own (see {@link #executeAsync}).
+     */
+    public void executeIncremental(String query, Map<String, Object> arguments, Consumer<Map<String, Object>> parts) {
+        Map<String, Object> variables = arguments != null ? arguments : Collections.emptyMap();
+        EntityManager requestEntityManager = createRequestEntityManager();
+        IncrementalDelivery delivery = new IncrementalDelivery();
+
+        try {
+            JpaExecutionContext context = createExecutionContext(variables);
+            context.setEntityManager(requestEntityManager);
+            context.setRootFieldExecutor(null);
+            context.setIncrementalDelivery(delivery);
+
+            ExecutionResult result = graphQL.execute(ExecutionInput.newExecutionInput().query(query).variables(variables).context(context).build());
+
+            Map<String, Object> initial = new LinkedHashMap<>(result.toSpecification());
+            initial.put("hasNext", delivery.hasNext());
+            parts.accept(initial);
+
+            while (delivery.hasNext()) {
+                Map<String, Object> subsequent = new LinkedHashMap<>();
+                subsequent.put("incremental", delivery.next());
+                subsequent.put("hasNext", delivery.hasNext());
+                parts.accept(subsequent);
+            }
+        } finally {
+            requestEntityManager.close();
+        }
+    }
+
+    /**
+     * Executes the query incrementally (see {@link #executeIncremental(String, Map, Consumer)}), writing each part to
+     * the writer as it is resolved, as a part of a multipart/mixed response (of the {@link #INCREMENTAL_CONTENT_TYPE}).
+     */
+    public void executeIncremental(String query, Map<String, Object> arguments, Writer writer) throws IOException {
+        try {
+            executeIncremental(query, arguments, part -> {
+                try {
+                    writer.write("\r\n---\r\nContent-Type: application/json; charset=utf-8\r\n\r\n");
+                    JsonWriter.write(part, writer);
+                    writer.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        writer.write("\r\n-----\r\n");
+        writer.flush();
+    }
+
+    private EntityManager createRequestEntityManager() {
+        EntityManager requestEntityManager = entityManager.getEntityManagerFactory().createEntityManager();
+        //nothing is written, so there is never anything to flush
+        requestEntityManager.setFlushMode(FlushModeType.COMMIT);
+        return requestEntityManager;
+    }
+
+    /**
+     * Executes the query on an EntityManager of its own, writing the result as JSON.  A single root field of entities is
+     * loaded and flushed in chunks, so the memory used doesn't depend on the number of results.
+     */
+    public void executeStreaming(String query, Map<String, Object> arguments, Writer writer) throws IOException {
+        Map<String, Object> variables = arguments != null ? arguments : Collections.emptyMap();
+        String rootField = getStreamedRootField(query);
+        StreamWindow window = rootField != null ? new StreamWindow(rootField, streamChunkSize) : null;
+        EntityManager requestEntityManager = createRequestEntityManager();
+
+        try {
+            ExecutionResult result = executeOnEntityManager(query, variables, requestEntityManager, window);
+
+            if (window == null || !window.isLoaded() || !(result.getData() instanceof Map)) {
+                JsonWriter.write(result.toSpecification(), writer);
+                writer.flush();
+                return;
+            }
+
+            List<GraphQLError> errors = new ArrayList<>();
+            boolean first = true;
+
+            writer.write("{\"data\":{");
+            JsonWriter.write(rootField, writer);
+            writer.write(":[");
+
+            while (true) {
+                errors.addAll(result.getErrors());
+                Object rows = result.getData() instanceof Map ? ((Map<?, ?>) result.getData()).get(rootField) : null;
+
+                for (Object row : rows instanceof List ? (List<?>) rows : Collections.emptyList()) {
+                    if (!first) {
+                        writer.write(',');
+                    }
+
+                    JsonWriter.write(row, writer);
+                    first = false;
+                }
+
+                writer.flush();
+
+                if (!errors.isEmpty() || !window.isLoaded() || window.isLast()) {
+                    break;
+                }
+
+                //the rows are written, so neither they nor their entities are needed any more
+                window.next();
+                requestEntityManager.clear();
+                result = executeOnEntityManager(query, variables, requestEntityManager, window);
+            }
+
+            writer.write("]}");
+
+            if (!errors.isEmpty()) {
+                writer.write(",\"errors\":");
+                JsonWriter.write(errors.stream().map(GraphQLError::toSpecification).collect(Collectors.toList()), writer);
+            }
+
+            writer.write('}');
+            writer.flush();
+        } finally {
+            requestEntityManager.close();
+        }
+    }
+
+    /**
+     * @return the key of the root field, when the query is a single operation that selects a single root field
+     */
+    private String getStreamedRootField(String query) {
+        OperationDefinition operation = getOperation(query);
+
+        if (operation == null || operation.getOperation() != OperationDefinition.Operation.QUERY) {
+            return null;
+        }
+
+        List<Selection> selections = operation.getSelectionSet().getSelections();
+
+        if (selections.size() != 1 || !(selections.get(0) instanceof Field)) {
+            return null;
+        }
+
+        Field field = (Field) selections.get(0);
+        return field.getAlias() != null ? field.getAlias() : field.getName();
+    }
+
+    /**
+     * @return the operation of the query, when it has a single one, taken from the cached document the execution uses
+     */
+    private OperationDefinition getOperation(String query) {
+        PreparsedDocumentEntry entry = persistedQueries.getDocument(query);
+
+        //executing the query reports the syntax and validation errors
+        if (entry.hasErrors()) {
+            return null;
+        }
+
+        List<OperationDefinition> operations = entry.getDocument().getDefinitions().stream()
+                .filter(OperationDefinition.class::isInstance)
+                .map(OperationDefinition.class::cast)
+                .collect(Collectors.toList());
+
+        return operations.size() == 1 ? operations.get(0) : null;
+    }
+
+    protected JpaExecutionContext createExecutionContext(Map<String, Object> variables) {
+        JpaExecutionContext context = new JpaExecutionContext(batchFetching, variables);
+        context.setRowCountEstimator(rowCountEstimator);
+        context.setCountExecutor(countExecutor);
+        context.setProjection(projection);
+        context.setFetchJoins(fetchJoins);
+        context.setEntityGraphs(entityGraphs);
+        context.setRootFieldExecutor(rootFieldExecutor);
+        context.setQueryLimiter(queryLimiter);
+        context.setQueryMemo(queryMemoization ? new QueryMemo(queryMemoStatistics) : null);
+        return context;
+    }
+
+    /**
+     * The plans of the queries executed by this executor, for inspecting its size and hit counts, or resizing it.
+     */
+    public QueryPlanCache getQueryPlanCache() {
+        return queryPlanCache;
+    }
+
+    /**
+     * The parsed and validated documents of the queries executed by this executor, for inspecting its hit ratio, or
+     * changing its size and eviction policy.
+     */
+    public PreparsedDocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    /**
+     * The queries that can be executed by their hash, for registering queries ahead of time, or saving the registered
+     * queries so that another node can load them at startup.
+     */
+    public PersistedQueryRegistry getPersistedQueries() {
+        return persistedQueries;
+    }
+
+    public String getPersistedQueriesFile() {
+        return persistedQueriesFile;
+    }
+
+    /**
+     * A file of queries (as written by {@link PersistedQueryRegistry#save}) that are registered, and compiled, when the
+     * executor is created.
+     */
+    public void setPersistedQueriesFile(String persistedQueriesFile) {
+        this.persistedQueriesFile = persistedQueriesFile;
+    }
+
+    public boolean isBatchFetching() {
+        return batchFetching;
+    }
+
+    /**
+     * When enabled, nested associations are loaded for every parent at the same level of the query with a single
+     * query per association, instead of one query per parent.
+     */
+    public void setBatchFetching(boolean batchFetching) {
+        this.batchFetching = batchFetching;
+    }
+
+    public RowCountEstimator getRowCountEstimator() {
+        return rowCountEstimator;
+    }
+
+    /**
+     * Answers the estimatedTotalElements of Connections, which otherwise falls back to an exact count.
+     */
+    public void setRowCountEstimator(RowCountEstimator rowCountEstimator) {
+        this.rowCountEstimator = rowCountEstimator;
+    }
+
+    public Executor getCountExecutor() {
+        return countExecutor;
+    }
+
+    /**
+     * When set, Connections that select both totals and content run the count query on this executor, on a separate
+     * EntityManager, while the page is loaded, so they take about as long as the slower of the two queries.  The count
+     * uses a connection of its own, so the executor should be bounded within the size of the connection pool.
+     */
+    public void setCountExecutor(Executor countExecutor) {
+        this.countExecutor = countExecutor;
+    }
+
+    public boolean isProjection() {
+        return projection;
+    }
+
+    /**
+     * When enabled, queries that select only basic attributes (no associations) select just those columns, and return
+     * them as maps instead of loading entities.
+     */
+    public void setProjection(boolean projection) {
+        this.projection = projection;
+    }
+
+    public boolean isFetchJoins() {
+        return fetchJoins;
+    }
+
+    /**
+     * When enabled, ToOne associations without arguments are fetched by the query of their parent (never by count
+     * queries), and are then returned without a query of their own.  Associations with arguments are still joined, as
+     * fetches can't be filtered.
+     */
+    public void setFetchJoins(boolean fetchJoins) {
+        this.fetchJoins = fetchJoins;
+    }
+
+    public boolean isEntityGraphs() {
+        return entityGraphs;
+    }
+
+    /**
+     * When enabled, the associations of the selection are turned into an entity graph (used as a load graph hint),
+     * instead of being joined by the Criteria query.  Joins are still built for associations that filter the results,
+     * and associations with arguments are still queried by their own fetchers.
+     */
+    public void setEntityGraphs(boolean entityGraphs) {
+        this.entityGraphs = entityGraphs;
+    }
+
+    public Executor getRootFieldExecutor() {
+        return rootFieldExecutor;
+    }
+
+    /**
+     * Resolves the root fields after the first on this executor, each on a read-only EntityManager (and connection) of
+     * its own, so the executor should be bounded within the size of the connection pool.
+     */
+    public void setRootFieldExecutor(Executor rootFieldExecutor) {
+        this.rootFieldExecutor = rootFieldExecutor;
+    }
+
+    public boolean isQueryMemoization() {
+        return queryMemoization;
+    }
+
+    /**
+     * When enabled, the results of the queries run by a request are kept until the request is complete, so that
+     * identical queries (e.g. of aliased fields, repeated fragments, or the same ManyToOne shared by many parents) are
+     * only run once per request.
+     */
+    public void setQueryMemoization(boolean queryMemoization) {
+        this.queryMemoization = queryMemoization;
+    }
+
+    /**
+     * The queries run through the memos of this executor's requests, and the duplicates they avoided
+     */
+    public QueryMemoStatistics getQueryMemoStatistics() {
+        return queryMemoStatistics;
+    }
+
+    public int getStreamChunkSize() {
+        return streamChunkSize;
+    }
+
+    /**
+     * The number of results of the root field that {@link #executeStreaming} loads (and writes) at a time.
+     */
+    public void setStreamChunkSize(int streamChunkSize) {
+        if (streamChunkSize < 1) {
+            throw new IllegalArgumentException("Chunks have to hold at least one result, not " + streamChunkSize);
+        }
+
+        this.streamChunkSize = streamChunkSize;
+    }
+
+    public Executor getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    /**
+     * The executor that {@link #executeAsync} runs requests on.
+     */
+    public void setRequestExecutor(Executor requestExecutor) {
+        this.requestExecutor = requestExecutor;
+    }
+
+    /**
+     * The limiter of the queries run by the requests of this executor, or null when they aren't limited
+     */
+    public QueryLimiter getQueryLimiter() {
+        return queryLimiter;
+    }
+
+    public int getMaxConcurrentQueries() {
+        return queryLimiter != null ? queryLimiter.getMaxConcurrentQueries() : 0;
+    }
+
+    /**
+     * @param maxConcurrentQueries the most queries that the requests of this executor run at once, or 0 for no limit
+     */
+    public void setMaxConcurrentQueries(int maxConcurrentQueries) {
+        this.queryLimiter = maxConcurrentQueries > 0 ? new QueryLimiter(maxConcurrentQueries) : null;
+    }
+
+    public QueryCoalescer getQueryCoalescer() {
+        return queryCoalescer;
+    }
+
+    /**
+     * When set, identical queries (the same text and variables, in the same security context) executed by concurrent
+     * requests share a single execution and its result, see {@link QueryCoalescer}.  Only queries are shared, neither
+     * mutations nor the incremental and streaming executions are.
+     */
+    public void setQueryCoalescer(QueryCoalescer queryCoalescer) {
+        this.queryCoalescer = queryCoalescer;
+    }
+
+    /**
+     * Runs async requests, and the root fields and counts they resolve in parallel, on virtual threads, with only the
+     * queries limited to the given number.
+     *
+     * @throws UnsupportedOperationException on Java versions without virtual threads (before 21)
+     */
+    public void useVirtualThreads(int maxConcurrentQueries) {
+        ExecutorService executor = VirtualThreads.newExecutor();
+
+        this.requestExecutor = executor;
+        this.rootFieldExecutor = executor;
+        this.countExecutor = executor;
+        setMaxConcurrentQueries(maxConcurrentQueries);
     }
 
 }
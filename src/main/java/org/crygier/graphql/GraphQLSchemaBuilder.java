@@ -26,9 +26,13 @@ import javax.persistence.criteria.JoinType;
 public class GraphQLSchemaBuilder {
 
     public static final String PAGINATION_REQUEST_PARAM_NAME = "paginationRequest";
+    public static final String FIRST_PARAM_NAME = "first";
+    public static final String AFTER_PARAM_NAME = "after";
     private static final Logger log = LoggerFactory.getLogger(GraphQLSchemaBuilder.class);
 
     private EntityManager entityManager;
+    private QueryPlanCache queryPlanCache;
+    private MetamodelIndex metamodelIndex;
 
     private Map<Class, GraphQLType> classCache = new HashMap<>();
     private Map<EntityType, GraphQLObjectType> connectorCache = new HashMap<>();
@@ -36,12 +40,27 @@ public class GraphQLSchemaBuilder {
     private Map<EmbeddableType, GraphQLObjectType> embeddableCache = new HashMap<>();
 
     public GraphQLSchemaBuilder(EntityManager entityManager) {
+        this(entityManager, new QueryPlanCache());
+    }
+
+    public GraphQLSchemaBuilder(EntityManager entityManager, QueryPlanCache queryPlanCache) {
         this.entityManager = entityManager;
+        this.queryPlanCache = queryPlanCache;
+        this.metamodelIndex = new MetamodelIndex(entityManager.getMetamodel());
+    }
+
+    public QueryPlanCache getQueryPlanCache() {
+        return queryPlanCache;
+    }
+
+    public MetamodelIndex getMetamodelIndex() {
+        return metamodelIndex;
     }
 
     public GraphQLSchema getGraphQLSchema() {
         GraphQLSchema.Builder schemaBuilder = GraphQLSchema.newSchema();
         schemaBuilder.query(getQueryType());
+        schemaBuilder.additionalDirectives(new LinkedHashSet<>(Arrays.asList(IncrementalExecutionStrategy.DEFER_DIRECTIVE, IncrementalExecutionStrategy.STREAM_DIRECTIVE)));
 
         return schemaBuilder.build();
     }
@@ -62,7 +81,7 @@ public class GraphQLSchemaBuilder {
                 .name(entityType.getName())
                 .description(getSchemaDocumentation(entityType.getJavaType()))
                 .type(new GraphQLList(getObjectType(entityType)))
-                .dataFetcher(new JpaDataFetcher(entityManager, entityType))
+                .dataFetcher(new JpaDataFetcher(entityManager, entityType, queryPlanCache, metamodelIndex))
                 .argument(entityType.getAttributes().stream().filter(this::isValidInput).filter(this::isNotIgnored).flatMap(this::getArgument).collect(Collectors.toList()))
                 .build();
     }
@@ -74,8 +93,10 @@ public class GraphQLSchemaBuilder {
                 .name(entityType.getName() + "Connection")
                 .description("'Connection' request wrapper object for " + entityType.getName() + ".  Use this object in a query to request things like pagination or aggregation in an argument.  Use the 'content' field to request actual fields ")
                 .type(pageType)
-                .dataFetcher(new ExtendedJpaDataFetcher(entityManager, entityType))
+                .dataFetcher(new ExtendedJpaDataFetcher(entityManager, entityType, queryPlanCache, metamodelIndex))
                 .argument(paginationArgument)
+                .argument(firstArgument)
+                .argument(afterArgument)
                 .build();
     }
 
@@ -90,11 +111,17 @@ public class GraphQLSchemaBuilder {
 						.description("Total number of pages calculated on the database for this pageSize.").type(Scalars.GraphQLLong).build())
                 .field(GraphQLFieldDefinition.newFieldDefinition().name("totalElements")
 						.description("Total number of results on the database for this query.").type(Scalars.GraphQLLong).build())
+                .field(GraphQLFieldDefinition.newFieldDefinition().name("estimatedTotalElements")
+						.description("An estimate of the total number of results, which can be much cheaper than totalElements.  Falls back to the exact count when no estimate is available.").type(Scalars.GraphQLLong).build())
+                .field(GraphQLFieldDefinition.newFieldDefinition().name("endCursor")
+						.description("The cursor of the last result, to pass as 'after' for the next page.  Only returned for 'first' / 'after' (keyset) pagination.").type(Scalars.GraphQLString).build())
+                .field(GraphQLFieldDefinition.newFieldDefinition().name("hasNextPage")
+						.description("Whether there are more results after this page, found by loading one more result than the page size rather than counting all of them.").type(Scalars.GraphQLBoolean).build())
                 .field(GraphQLFieldDefinition.newFieldDefinition()
 						.name("content")
 						.description("The actual object results")
 						.type(new GraphQLList(getObjectType(entityType)))
-						.dataFetcher(new JpaDataFetcher(entityManager, entityType))
+						.dataFetcher(new JpaDataFetcher(entityManager, entityType, queryPlanCache, metamodelIndex))
 						.argument(entityType.getAttributes().stream().filter(this::isValidInput).filter(this::isNotIgnored).flatMap(this::getArgument).collect(Collectors.toList()))
 						.build())
                 .build();
@@ -147,7 +174,7 @@ public class GraphQLSchemaBuilder {
 
 		//generate standard fields from object
 		List<GraphQLFieldDefinition> fieldDefinitions = 
-				entityType.getAttributes().stream().filter(this::isNotIgnored).flatMap(this::getObjectField).collect(Collectors.toList());
+				entityType.getAttributes().stream().filter(this::isNotIgnored).flatMap(attribute -> getObjectField(entityType, attribute)).collect(Collectors.toList());
 		
         GraphQLObjectType answer = GraphQLObjectType.newObject()
                 .name(entityType.getName())
@@ -167,7 +194,7 @@ public class GraphQLSchemaBuilder {
 		}
 
 		List<GraphQLFieldDefinition> fieldDefinitions
-				= embeddableType.getAttributes().stream().filter(this::isNotIgnored).flatMap(this::getObjectField).collect(Collectors.toList());
+				= embeddableType.getAttributes().stream().filter(this::isNotIgnored).flatMap(attribute -> getObjectField(embeddableType, attribute)).collect(Collectors.toList());
 
 		GraphQLObjectType answer = GraphQLObjectType.newObject()
 				.name(clazz.getSimpleName())
@@ -208,12 +235,12 @@ public class GraphQLSchemaBuilder {
 		}
 	}
 	
-    private Stream<GraphQLFieldDefinition> getObjectField(Attribute attribute) {
+    private Stream<GraphQLFieldDefinition> getObjectField(ManagedType<?> managedType, Attribute attribute) {
 
 		if (attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.EMBEDDED) {
 			EmbeddableType embeddableType = (EmbeddableType) ((SingularAttribute) attribute).getType();
 			Stream<Attribute> s = (Stream<Attribute>) embeddableType.getAttributes().stream();
-			return s.flatMap(this::getObjectField);
+			return s.flatMap(it -> getObjectField(embeddableType, it));
 		} else {
 
 			return Arrays.asList(getAttributeType(attribute)).stream()
@@ -242,7 +269,7 @@ public class GraphQLSchemaBuilder {
 									.name(attribute.getName())
 									.description(getSchemaDocumentation(attribute.getJavaMember()))
 									.type((GraphQLOutputType) type)
-									.dataFetcher(new JpaDataFetcher(entityManager, foreignType))
+									.dataFetcher(new JpaDataFetcher(entityManager, foreignType, queryPlanCache, metamodelIndex))
 									.argument(arguments)
 									.build();
 
@@ -263,7 +290,7 @@ public class GraphQLSchemaBuilder {
 										.name(attribute.getName())
 										.description(getSchemaDocumentation(attribute.getJavaMember()))
 										.type((GraphQLOutputType) type)
-										.dataFetcher(new JpaDataFetcher(entityManager, foreignType))
+										.dataFetcher(new JpaDataFetcher(entityManager, foreignType, queryPlanCache, metamodelIndex))
 										.argument(arguments)
 										.build();
 
@@ -302,6 +329,7 @@ public class GraphQLSchemaBuilder {
 								.name(attribute.getName())
 								.description(getSchemaDocumentation(attribute.getJavaMember()))
 								.type((GraphQLOutputType) type)
+								.dataFetcher(getAttributeDataFetcher(managedType, attribute))
 								.argument(arguments)
 								.build();
 
@@ -309,6 +337,20 @@ public class GraphQLSchemaBuilder {
 		}
 	}
 
+	/**
+	 * @return a fetcher reading the attribute through its indexed method handle, or null to leave it to the default
+	 * PropertyDataFetcher
+	 */
+	private DataFetcher getAttributeDataFetcher(ManagedType<?> managedType, Attribute attribute) {
+		MetamodelIndex.IndexedAttribute indexedAttribute = metamodelIndex.getAttribute(managedType, attribute.getName());
+
+		if (indexedAttribute == null || !indexedAttribute.isReadable()) {
+			return null;
+		}
+
+		return new AttributeDataFetcher(metamodelIndex, managedType.getJavaType(), indexedAttribute);
+	}
+
     private boolean isConnectorField(Attribute attribute) {
 		
         boolean result = false;
@@ -346,8 +388,10 @@ public class GraphQLSchemaBuilder {
 				.name(attribute.getName() + "Connection")
 				.description("'Connection' request wrapper object for " + entityType.getName() + ".  Use this object in a query to request things like pagination or aggregation in an argument.  Use the 'content' field to request actual fields ")
 				.type(getConnectorType(entityType))
-				.dataFetcher(new ExtendedJpaDataFetcher(entityManager, entityType))
+				.dataFetcher(new ExtendedJpaDataFetcher(entityManager, entityType, queryPlanCache, metamodelIndex))
 				.argument(paginationArgument)
+				.argument(firstArgument)
+				.argument(afterArgument)
 				.build();
 
 		} else if (attribute instanceof PluralAttribute) {
@@ -360,8 +404,10 @@ public class GraphQLSchemaBuilder {
 				.name(attribute.getName() + "Connection")
 				.description("'Connection' request wrapper object for " + entityType.getName() + ".  Use this object in a query to request things like pagination or aggregation in an argument.  Use the 'content' field to request actual fields ")
 				.type(getConnectorType(entityType))
-				.dataFetcher(new ExtendedJpaDataFetcher(entityManager, entityType))
+				.dataFetcher(new ExtendedJpaDataFetcher(entityManager, entityType, queryPlanCache, metamodelIndex))
 				.argument(paginationArgument)
+				.argument(firstArgument)
+				.argument(afterArgument)
 				.build();
 			}
 		}
@@ -532,6 +578,20 @@ public class GraphQLSchemaBuilder {
                             .build()
                     ).build();
 
+    private static final GraphQLArgument firstArgument =
+            GraphQLArgument.newArgument()
+                    .name(FIRST_PARAM_NAME)
+                    .description("Requests keyset (cursor) pagination: how many results the page should contain, ordered by the field of 'content' with an orderBy (if any) and then the identifier.")
+                    .type(Scalars.GraphQLInt)
+                    .build();
+
+    private static final GraphQLArgument afterArgument =
+            GraphQLArgument.newArgument()
+                    .name(AFTER_PARAM_NAME)
+                    .description("The 'endCursor' of the previous page, when using keyset (cursor) pagination.")
+                    .type(Scalars.GraphQLString)
+                    .build();
+
     private static final GraphQLEnumType orderByDirectionEnum =
             GraphQLEnumType.newEnum()
                     .name("OrderByDirection")
@@ -0,0 +1,58 @@
+package org.crygier.graphql;
+
+import graphql.execution.ExecutionPath;
+import graphql.language.Field;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * The parts of a result left out by the {@link IncrementalExecutionStrategy}, resolved into incremental payloads once
+ * the initial result has been delivered.
+ */
+public class IncrementalDelivery {
+
+	private final Queue<Supplier<Map<String, Object>>> pending = new ConcurrentLinkedQueue<>();
+
+	//the fields (as written in the query) whose values are the objects being resolved, by the path of the object
+	private final Map<ExecutionPath, List<Field>> selections = new ConcurrentHashMap<>();
+
+	/**
+	 * @param payload resolves the left out part of the result (when it's called) into its payload
+	 */
+	public void defer(Supplier<Map<String, Object>> payload) {
+		pending.add(payload);
+	}
+
+	void setSelection(ExecutionPath path, List<Field> fields) {
+		selections.put(path, fields);
+	}
+
+	List<Field> getSelection(ExecutionPath path) {
+		return selections.get(path);
+	}
+
+	public boolean hasNext() {
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Resolves the payloads that are pending.  The parts they leave out in turn (e.g. a deferred fragment within a
+	 * deferred fragment) are left for the next call.
+	 */
+	public List<Map<String, Object>> next() {
+		List<Supplier<Map<String, Object>>> current = new ArrayList<>();
+
+		for (int i = pending.size(); i > 0; i--) {
+			current.add(pending.poll());
+		}
+
+		return current.stream().map(Supplier::get).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,348 @@
+package org.crygier.graphql;
+
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import graphql.Scalars;
+import graphql.execution.ExecutionContext;
+import graphql.execution.ExecutionPath;
+import graphql.execution.ExecutionStrategyParameters;
+import graphql.execution.ExecutionTypeInfo;
+import graphql.execution.NonNullableFieldValidator;
+import graphql.execution.NonNullableFieldWasNullException;
+import graphql.language.Argument;
+import graphql.language.BooleanValue;
+import graphql.language.Directive;
+import graphql.language.Field;
+import graphql.language.FragmentDefinition;
+import graphql.language.FragmentSpread;
+import graphql.language.InlineFragment;
+import graphql.language.IntValue;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.language.StringValue;
+import graphql.language.Value;
+import graphql.language.VariableReference;
+import graphql.schema.GraphQLDirective;
+import graphql.schema.GraphQLList;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static graphql.introspection.Introspection.DirectiveLocation.FIELD;
+import static graphql.introspection.Introspection.DirectiveLocation.FRAGMENT_SPREAD;
+import static graphql.introspection.Introspection.DirectiveLocation.INLINE_FRAGMENT;
+
+/**
+ * Leaves the fields marked with @defer, and the items of lists marked with @stream, to the {@link IncrementalDelivery}
+ * of the request (if any), which resolves them on the same EntityManager once the initial result is complete.
+ */
+public class IncrementalExecutionStrategy extends ParallelRootExecutionStrategy {
+
+	public static final GraphQLDirective DEFER_DIRECTIVE = GraphQLDirective.newDirective()
+			.name("defer")
+			.description("Delivers the field or fragment after the rest of the result, when the query is executed incrementally")
+			.argument(it -> it.name("if").type(Scalars.GraphQLBoolean).defaultValue(true))
+			.argument(it -> it.name("label").type(Scalars.GraphQLString))
+			.validLocations(FIELD, FRAGMENT_SPREAD, INLINE_FRAGMENT)
+			.build();
+
+	public static final GraphQLDirective STREAM_DIRECTIVE = GraphQLDirective.newDirective()
+			.name("stream")
+			.description("Delivers the items of the list after the initial count one at a time, after the rest of the result, when the query is executed incrementally")
+			.argument(it -> it.name("if").type(Scalars.GraphQLBoolean).defaultValue(true))
+			.argument(it -> it.name("label").type(Scalars.GraphQLString))
+			.argument(it -> it.name("initialCount").type(Scalars.GraphQLInt).defaultValue(0))
+			.validLocations(FIELD)
+			.build();
+
+	public IncrementalExecutionStrategy(EntityManagerFactory entityManagerFactory) {
+		super(entityManagerFactory);
+	}
+
+	@Override
+	public CompletableFuture<ExecutionResult> execute(ExecutionContext executionContext, ExecutionStrategyParameters parameters) throws NonNullableFieldWasNullException {
+
+		IncrementalDelivery delivery = getDelivery(executionContext);
+		Map<String, String> deferredFields = delivery != null ? getDeferredFields(executionContext, parameters, delivery) : Collections.emptyMap();
+
+		if (deferredFields.isEmpty()) {
+			return super.execute(executionContext, parameters);
+		}
+
+		Map<String, List<Field>> fields = new LinkedHashMap<>();
+		//the deferred fields by their label, each label is delivered as a payload of its own
+		Map<String, Map<String, List<Field>>> deferredGroups = new LinkedHashMap<>();
+
+		parameters.fields().forEach((key, field) -> {
+			if (deferredFields.containsKey(key)) {
+				deferredGroups.computeIfAbsent(deferredFields.get(key), label -> new LinkedHashMap<>()).put(key, field);
+			} else {
+				fields.put(key, field);
+			}
+		});
+
+		deferredGroups.forEach((label, group) -> delivery.defer(() -> resolveDeferred(executionContext, parameters, label, group)));
+
+		return super.execute(executionContext, parameters.transform(builder -> builder.fields(fields)));
+	}
+
+	private Map<String, Object> resolveDeferred(ExecutionContext executionContext, ExecutionStrategyParameters parameters, String label,
+			Map<String, List<Field>> fields) {
+
+		Set<GraphQLError> previousErrors = getErrors(executionContext);
+		Map<String, Object> data = new LinkedHashMap<>();
+		RuntimeException failure = null;
+
+		try {
+			for (Map.Entry<String, List<Field>> entry : fields.entrySet()) {
+				ExecutionPath fieldPath = parameters.path().segment(entry.getKey());
+				ExecutionStrategyParameters fieldParameters = parameters.transform(builder -> builder.field(entry.getValue()).path(fieldPath));
+
+				data.put(entry.getKey(), resolveField(executionContext, fieldParameters).join().getData());
+			}
+		} catch (RuntimeException e) {
+			data = null;
+			failure = e;
+		}
+
+		return createPayload("data", data, parameters.path(), label, getNewErrors(executionContext, previousErrors, failure));
+	}
+
+	@Override
+	protected CompletableFuture<ExecutionResult> completeValue(ExecutionContext executionContext, ExecutionStrategyParameters parameters) throws NonNullableFieldWasNullException {
+		IncrementalDelivery delivery = getDelivery(executionContext);
+
+		//the fields of objects are executed without the field they belong to, which holds the directives of their selection
+		if (delivery != null && parameters.field() != null) {
+			delivery.setSelection(parameters.path(), parameters.field());
+		}
+
+		return super.completeValue(executionContext, parameters);
+	}
+
+	@Override
+	protected CompletableFuture<ExecutionResult> completeValueForList(ExecutionContext executionContext, ExecutionStrategyParameters parameters, Iterable<Object> result) {
+
+		IncrementalDelivery delivery = getDelivery(executionContext);
+		Directive stream = delivery != null && isFieldValue(parameters) ? getStreamDirective(executionContext, parameters.field()) : null;
+
+		if (stream == null) {
+			return super.completeValueForList(executionContext, parameters, result);
+		}
+
+		Object initialCountValue = getArgumentValue(executionContext, stream, "initialCount");
+		int initialCount = initialCountValue instanceof Number ? Math.max(((Number) initialCountValue).intValue(), 0) : 0;
+		String label = (String) getArgumentValue(executionContext, stream, "label");
+
+		List<Object> items = new ArrayList<>();
+		result.forEach(items::add);
+
+		if (items.size() > initialCount) {
+			delivery.defer(() -> resolveStreamed(executionContext, parameters, delivery, items, initialCount, label));
+		}
+
+		return super.completeValueForList(executionContext, parameters, items.subList(0, Math.min(initialCount, items.size())));
+	}
+
+	/**
+	 * Completes a single item of the list, and defers the next one
+	 */
+	private Map<String, Object> resolveStreamed(ExecutionContext executionContext, ExecutionStrategyParameters parameters, IncrementalDelivery delivery,
+			List<Object> items, int index, String label) {
+
+		Set<GraphQLError> previousErrors = getErrors(executionContext);
+		ExecutionPath indexedPath = parameters.path().segment(index);
+		List<Object> completed = null;
+		RuntimeException failure = null;
+
+		ExecutionTypeInfo itemTypeInfo = ExecutionTypeInfo.newTypeInfo()
+				.parentInfo(parameters.typeInfo())
+				.type(parameters.typeInfo().castType(GraphQLList.class).getWrappedType())
+				.path(indexedPath)
+				.build();
+
+		ExecutionStrategyParameters itemParameters = ExecutionStrategyParameters.newParameters()
+				.typeInfo(itemTypeInfo)
+				.fields(parameters.fields())
+				.nonNullFieldValidator(new NonNullableFieldValidator(executionContext, itemTypeInfo))
+				.path(indexedPath)
+				.field(parameters.field())
+				.source(items.get(index))
+				.build();
+
+		try {
+			completed = Collections.singletonList(completeValue(executionContext, itemParameters).join().getData());
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+
+		if (index + 1 < items.size()) {
+			delivery.defer(() -> resolveStreamed(executionContext, parameters, delivery, items, index + 1, label));
+		}
+
+		return createPayload("items", completed, indexedPath, label, getNewErrors(executionContext, previousErrors, failure));
+	}
+
+	/**
+	 * @return the label of every field of this level that is only selected with @defer (on itself, or on a fragment it is
+	 * part of), by its key in the result
+	 */
+	private Map<String, String> getDeferredFields(ExecutionContext executionContext, ExecutionStrategyParameters parameters, IncrementalDelivery delivery) {
+		Map<String, String> deferred = new LinkedHashMap<>();
+		Set<String> immediate = new HashSet<>();
+		List<Field> selection = delivery.getSelection(parameters.path());
+
+		if (ExecutionPath.rootPath().equals(parameters.path())) {
+			collectDeferredFields(executionContext, executionContext.getOperationDefinition().getSelectionSet(), null, deferred, immediate);
+		} else if (selection != null) {
+			for (Field field : selection) {
+				collectDeferredFields(executionContext, field.getSelectionSet(), null, deferred, immediate);
+			}
+		}
+
+		deferred.keySet().removeAll(immediate);
+		deferred.keySet().retainAll(parameters.fields().keySet());
+		return deferred;
+	}
+
+	/**
+	 * @param defer the @defer of the enclosing fragment, if any
+	 */
+	private void collectDeferredFields(ExecutionContext executionContext, SelectionSet selectionSet, Directive defer,
+			Map<String, String> deferred, Set<String> immediate) {
+
+		if (selectionSet == null) {
+			return;
+		}
+
+		for (Selection selection : selectionSet.getSelections()) {
+			if (selection instanceof Field) {
+				Field field = (Field) selection;
+				String key = field.getAlias() != null ? field.getAlias() : field.getName();
+				Directive fieldDefer = getEnabledDirective(executionContext, field.getDirectives(), DEFER_DIRECTIVE.getName());
+				Directive effectiveDefer = fieldDefer != null ? fieldDefer : defer;
+
+				if (effectiveDefer != null) {
+					deferred.putIfAbsent(key, (String) getArgumentValue(executionContext, effectiveDefer, "label"));
+				} else {
+					immediate.add(key);
+				}
+			} else if (selection instanceof InlineFragment) {
+				InlineFragment fragment = (InlineFragment) selection;
+				Directive fragmentDefer = getEnabledDirective(executionContext, fragment.getDirectives(), DEFER_DIRECTIVE.getName());
+				collectDeferredFields(executionContext, fragment.getSelectionSet(), fragmentDefer != null ? fragmentDefer : defer, deferred, immediate);
+			} else if (selection instanceof FragmentSpread) {
+				FragmentSpread spread = (FragmentSpread) selection;
+				FragmentDefinition fragment = executionContext.getFragment(spread.getName());
+				Directive spreadDefer = getEnabledDirective(executionContext, spread.getDirectives(), DEFER_DIRECTIVE.getName());
+
+				if (fragment != null) {
+					collectDeferredFields(executionContext, fragment.getSelectionSet(), spreadDefer != null ? spreadDefer : defer, deferred, immediate);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Only the list that is the field's value is streamed, not the lists within it
+	 */
+	private boolean isFieldValue(ExecutionStrategyParameters parameters) {
+		List<Object> path = parameters.path().toList();
+		return !path.isEmpty() && path.get(path.size() - 1) instanceof String;
+	}
+
+	private Directive getStreamDirective(ExecutionContext executionContext, List<Field> fields) {
+		for (Field field : fields) {
+			Directive stream = getEnabledDirective(executionContext, field.getDirectives(), STREAM_DIRECTIVE.getName());
+
+			if (stream != null) {
+				return stream;
+			}
+		}
+
+		return null;
+	}
+
+	private static Directive getEnabledDirective(ExecutionContext executionContext, List<Directive> directives, String name) {
+		for (Directive directive : directives) {
+			if (name.equals(directive.getName()) && !Boolean.FALSE.equals(getArgumentValue(executionContext, directive, "if"))) {
+				return directive;
+			}
+		}
+
+		return null;
+	}
+
+	private static Object getArgumentValue(ExecutionContext executionContext, Directive directive, String name) {
+		Argument argument = directive.getArgument(name);
+		Value value = argument != null ? argument.getValue() : null;
+
+		if (value instanceof VariableReference) {
+			return executionContext.getVariables().get(((VariableReference) value).getName());
+		} else if (value instanceof BooleanValue) {
+			return ((BooleanValue) value).isValue();
+		} else if (value instanceof StringValue) {
+			return ((StringValue) value).getValue();
+		} else if (value instanceof IntValue) {
+			return ((IntValue) value).getValue();
+		}
+
+		return null;
+	}
+
+	private static IncrementalDelivery getDelivery(ExecutionContext executionContext) {
+		Object context = executionContext.getContext();
+		return context instanceof JpaExecutionContext ? ((JpaExecutionContext) context).getIncrementalDelivery() : null;
+	}
+
+	private static Set<GraphQLError> getErrors(ExecutionContext executionContext) {
+		Set<GraphQLError> errors = Collections.newSetFromMap(new IdentityHashMap<>());
+		errors.addAll(executionContext.getErrors());
+		return errors;
+	}
+
+	/**
+	 * @return the errors added to the ExecutionContext since the previous errors were taken, and the failure (if any)
+	 */
+	private static List<Map<String, Object>> getNewErrors(ExecutionContext executionContext, Set<GraphQLError> previousErrors, RuntimeException failure) {
+		List<Map<String, Object>> errors = new ArrayList<>();
+
+		for (GraphQLError error : executionContext.getErrors()) {
+			if (!previousErrors.contains(error)) {
+				errors.add(error.toSpecification());
+			}
+		}
+
+		if (failure != null && errors.isEmpty()) {
+			Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+			errors.add(Collections.singletonMap("message", cause.getMessage()));
+		}
+
+		return errors;
+	}
+
+	private static Map<String, Object> createPayload(String name, Object value, ExecutionPath path, String label, List<Map<String, Object>> errors) {
+		Map<String, Object> payload = new LinkedHashMap<>();
+		payload.put(name, value);
+		payload.put("path", path.toList());
+
+		if (label != null) {
+			payload.put("label", label);
+		}
+
+		if (!errors.isEmpty()) {
+			payload.put("errors", errors);
+		}
+
+		return payload;
+	}
+}
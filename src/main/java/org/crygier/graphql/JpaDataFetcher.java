@@ -2,26 +2,24 @@ package org.crygier.graphql;
 
 import graphql.language.*;
 import graphql.schema.*;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Member;
-import java.lang.reflect.Method;
 
+import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
+import javax.persistence.Parameter;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Subgraph;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.*;
 import javax.persistence.metamodel.Attribute;
 import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.ManagedType;
 import javax.persistence.metamodel.PluralAttribute;
 import javax.persistence.metamodel.SingularAttribute;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import javax.persistence.Cacheable;
-import javax.persistence.Embeddable;
-import javax.persistence.Entity;
-import javax.persistence.ManyToMany;
-import javax.persistence.ManyToOne;
-import javax.persistence.OneToMany;
-import javax.persistence.OneToOne;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,75 +27,1143 @@ public class JpaDataFetcher implements DataFetcher {
 
     protected EntityManager entityManager;
     protected EntityType<?> entityType;
+    protected QueryPlanCache queryPlanCache;
+    protected MetamodelIndex metamodelIndex;
 	
     private static final Logger log = LoggerFactory.getLogger(JpaDataFetcher.class);
 
     public JpaDataFetcher(EntityManager entityManager, EntityType<?> entityType) {
+        this(entityManager, entityType, null);
+    }
+
+    public JpaDataFetcher(EntityManager entityManager, EntityType<?> entityType, QueryPlanCache queryPlanCache) {
+        this(entityManager, entityType, queryPlanCache, new MetamodelIndex(entityManager.getMetamodel()));
+    }
+
+    public JpaDataFetcher(EntityManager entityManager, EntityType<?> entityType, QueryPlanCache queryPlanCache, MetamodelIndex metamodelIndex) {
         this.entityManager = entityManager;
         this.entityType = entityType;
+        this.queryPlanCache = queryPlanCache;
+        this.metamodelIndex = metamodelIndex;
+    }
+
+    @Override
+    public Object get(DataFetchingEnvironment environment) {
+		
+		Object result = null;
+		Field field = environment.getFields().iterator().next();
+		JpaExecutionContext context = getExecutionContext(environment);
+		
+		if (isIdentifierSelection(environment, field)) {
+			return getIdentifierReference(environment, field);
+		}
+		
+		if (environment.getSource() instanceof PaginationResult && ((PaginationResult) environment.getSource()).getContent() != null) {
+			//the page was already loaded by the Connection
+			result = ((PaginationResult) environment.getSource()).getContent();
+		} else if (isFetchedAssociation(environment, field)) {
+			//loaded by the parent's query through a fetch join
+			result = getAttributeValue(environment.getSource(), metamodelIndex.getAttribute(environment.getSource().getClass(), field.getName()).getAttribute());
+		} else if (context != null && context.isBatchFetching() && isBatchable(environment, field)) {
+			result = getBatchedResult(environment, field, context);
+		} else {
+			result = getResult(environment, field);
+		}
+		
+		if (context != null) {
+			if (result instanceof Collection) {
+				context.registerSiblings((Collection) result);
+			} else if (result != null) {
+				context.registerSiblings(Collections.singletonList(result));
+			}
+		}
+		
+        return result;
+    }
+
+    protected Object getResult(DataFetchingEnvironment environment, Field field) {
+		
+		StreamWindow window = getStreamWindow(environment, field);
+		
+		if (window == null && isProjectable(environment, field)) {
+			return getProjectedResult(environment, field);
+		}
+		
+		Object result = null;
+		QueryPlan plan = null;
+		TypedQuery typedQuery;
+		
+		if (window != null) {
+			typedQuery = getStreamQuery(environment, field, window);
+		} else {
+			List<Argument> arguments = getArguments(field);
+			plan = getQueryPlan(environment, field, arguments);
+			typedQuery = createTypedQuery(environment, plan, arguments);
+		}
+		
+		if (isEntityGraphs(environment)) {
+			//collections can't be fetched along with a page (or chunk) without paging in memory
+			typedQuery.setHint("javax.persistence.loadgraph", getEntityGraph(environment, field, !(environment.getSource() instanceof PaginationResult) && window == null));
+		}
+		
+		//if this is an entity that we specifically marked for caching, let's cache it
+		if (metamodelIndex.isCacheable(entityType)) {
+			typedQuery.setHint(CACHEABLE_HINT, Boolean.TRUE);
+		}
+		
+		if (environment.getSource() instanceof PaginationResult) {
+			PaginationResult paginationResult = (PaginationResult) environment.getSource();
+			typedQuery.setMaxResults(paginationResult.getPageSize()).setFirstResult((paginationResult.getPage() - 1) * paginationResult.getPageSize());
+		}
+		
+		if (environment.getSource() != null && !(environment.getSource() instanceof PaginationResult)) {
+			List resultList = getResultList(environment, field, plan, typedQuery);
+
+			if (metamodelIndex.getAttribute(environment.getSource().getClass(), field.getName()).isCollection()) {
+				result = resultList;
+			} else {
+				if (resultList.size() == 1) {
+					result = resultList.get(0);
+				} else {
+					log.warn("Potentially unexpected number of results returned: " + resultList.size());
+				}
+			}
+			
+		} else if (isEntityGraphs(environment)) {
+			//fetching a collection repeats the parent for each element
+			result = getDistinctResults(getResultList(environment, field, plan, typedQuery));
+		} else {
+			result = getResultList(environment, field, plan, typedQuery);
+		}
+		
+		if (window != null) {
+			List<?> rows = (List<?>) result;
+			SingularAttribute sortAttribute = getStreamSortField(field).map(it -> (SingularAttribute) entityType.getAttribute(it.getName())).orElse(null);
+			window.loaded(rows.size(), rows.isEmpty() ? null : getKeyset(rows.get(rows.size() - 1), sortAttribute));
+		}
+		
+        return result;
+    }
+
+	/**
+	 * @return the window of the request when it is streaming this (root) field, and the entity has a single identifier to
+	 * order the chunks by
+	 */
+	protected StreamWindow getStreamWindow(DataFetchingEnvironment environment, Field field) {
+		JpaExecutionContext context = getExecutionContext(environment);
+		StreamWindow window = context != null ? context.getStreamWindow() : null;
+		
+		if (window == null || environment.getSource() != null || metamodelIndex.getIdAttribute(entityType) == null) {
+			return null;
+		}
+		
+		String key = field.getAlias() != null ? field.getAlias() : field.getName();
+		return key.equals(window.getRootField()) ? window : null;
+	}
+
+	/**
+	 * Queries a chunk of the results, ordered by the sort field (if any) and identifier.  The chunk starts after the sort
+	 * key and identifier of the last result of the previous chunk, so every chunk costs the same, unless the root field
+	 * is ordered in a way that a keyset can't follow, when it starts at an offset.
+	 */
+	@SuppressWarnings("unchecked")
+	private TypedQuery getStreamQuery(DataFetchingEnvironment environment, Field field, StreamWindow window) {
+		List<Argument> arguments = getArguments(field);
+		Optional<Field> sortField = getStreamSortField(field);
+		SingularAttribute sortAttribute = sortField.map(it -> (SingularAttribute) entityType.getAttribute(it.getName())).orElse(null);
+		boolean descending = sortField.map(this::isDescending).orElse(false);
+		boolean keyset = sortField.isPresent() || !hasOrderBy(field);
+		KeysetCursor after = keyset ? window.getAfter() : null;
+		boolean afterNull = after != null && sortAttribute != null && after.getSortValue() == null;
+		String queryType = "stream" + (keyset ? "" : ":offset") + (after != null ? (afterNull ? ":afterNull" : ":after") : "") + getFetchMode(environment);
+		
+		QueryPlan plan = getQueryPlan(queryType, environment, field, () -> {
+			CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+			CriteriaQuery<Object> query = cb.createQuery((Class) entityType.getJavaType());
+			QueryPlan result = new QueryPlan(query, arguments);
+			
+			Root root = buildCriteriaQuery(environment, field, cb, query, true, result);
+			orderByKeyset(cb, query, root, sortAttribute, descending);
+			
+			if (after != null) {
+				Predicate predicate = getKeysetPredicate(cb, root, sortAttribute, descending, afterNull, result);
+				query.where(query.getRestriction() != null ? cb.and(query.getRestriction(), predicate) : predicate);
+			}
+			
+			return result;
+		});
+		
+		TypedQuery typedQuery = createTypedQuery(environment, plan, arguments);
+		
+		if (after != null) {
+			setKeysetParameters(typedQuery, plan, after, sortAttribute != null && !afterNull);
+		} else if (!keyset) {
+			typedQuery.setFirstResult(window.getOffset());
+		}
+		
+		typedQuery.setMaxResults(window.getSize());
+		typedQuery.setHint(FETCH_SIZE_HINT, window.getSize());
+		
+		return typedQuery;
+	}
+
+	/**
+	 * The field that a streamed root field is ordered by, when it is the only ordering (of a basic attribute) and so
+	 * the chunks can follow it by keyset
+	 */
+	private Optional<Field> getStreamSortField(Field field) {
+		List<Field> orderedFields = new ArrayList<>();
+		addOrderedFields(field, orderedFields);
+		
+		if (orderedFields.size() != 1 || !field.getSelectionSet().getSelections().contains(orderedFields.get(0))) {
+			return Optional.empty();
+		}
+		
+		Attribute attribute = entityType.getAttribute(orderedFields.get(0).getName());
+		boolean basic = attribute instanceof SingularAttribute && attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.BASIC;
+		return basic ? Optional.of(orderedFields.get(0)) : Optional.empty();
+	}
+
+	private void addOrderedFields(Field field, List<Field> orderedFields) {
+		if (field.getSelectionSet() == null) {
+			return;
+		}
+		
+		for (graphql.language.Selection selection : field.getSelectionSet().getSelections()) {
+			if (selection instanceof Field) {
+				Field selectedField = (Field) selection;
+				
+				if (selectedField.getArguments().stream().anyMatch(arg -> "orderBy".equals(arg.getName()))) {
+					orderedFields.add(selectedField);
+				}
+				
+				addOrderedFields(selectedField, orderedFields);
+			}
+		}
+	}
+
+	protected boolean isDescending(Field orderedField) {
+		return orderedField.getArguments().stream()
+				.anyMatch(arg -> "orderBy".equals(arg.getName()) && "DESC".equals(((EnumValue) arg.getValue()).getName()));
+	}
+
+	/**
+	 * Orders the query by the sort attribute (if any), then by identifier, which breaks ties between equal sort keys so
+	 * that the order (and a keyset following it) is unique
+	 */
+	@SuppressWarnings("unchecked")
+	protected void orderByKeyset(CriteriaBuilder cb, CriteriaQuery<?> query, Root root, SingularAttribute sortAttribute, boolean descending) {
+		Path idPath = root.get(metamodelIndex.getIdAttribute(entityType).getName());
+		List<Order> orders = new ArrayList<>();
+		
+		if (sortAttribute != null) {
+			//where nulls are sorted depends on the database, so they are explicitly put before (or, descending, after) the values
+			Expression nullsFirst = cb.selectCase().when(cb.isNull(root.get(sortAttribute.getName())), 0).otherwise(1);
+			orders.add(descending ? cb.desc(nullsFirst) : cb.asc(nullsFirst));
+		}
+		
+		orders.addAll(query.getOrderList());
+		orders.add(descending ? cb.desc(idPath) : cb.asc(idPath));
+		query.orderBy(orders);
+	}
+
+	/**
+	 * The results after a keyset, in the order of {@link #orderByKeyset}, whose parameters are added to the plan
+	 *
+	 * @param afterNull whether the sort key of the keyset is null, which is compared without a parameter
+	 */
+	@SuppressWarnings("unchecked")
+	protected Predicate getKeysetPredicate(CriteriaBuilder cb, Root root, SingularAttribute sortAttribute, boolean descending, boolean afterNull, QueryPlan plan) {
+		SingularAttribute<?, ?> idAttribute = metamodelIndex.getIdAttribute(entityType);
+		Path idPath = root.get(idAttribute.getName());
+		ParameterExpression idParameter = cb.parameter(getParameterType(idAttribute.getJavaType()));
+		Predicate keyset = getKeysetComparison(cb, idPath, idParameter, descending);
+		plan.addParameter(AFTER_ID_PARAMETER, idParameter);
+		
+		//JPQL has no row values, so (sortKey, id) > (:sortKey, :id) is expanded, with nulls sorted first
+		if (sortAttribute != null && afterNull) {
+			Path sortPath = root.get(sortAttribute.getName());
+			keyset = cb.and(cb.isNull(sortPath), keyset);
+			keyset = descending ? keyset : cb.or(cb.isNotNull(sortPath), keyset);
+		} else if (sortAttribute != null) {
+			Path sortPath = root.get(sortAttribute.getName());
+			ParameterExpression sortParameter = cb.parameter(getParameterType(sortAttribute.getJavaType()));
+			keyset = cb.or(getKeysetComparison(cb, sortPath, sortParameter, descending), cb.and(cb.equal(sortPath, sortParameter), keyset));
+			keyset = descending ? cb.or(cb.isNull(sortPath), keyset) : keyset;
+			plan.addParameter(AFTER_SORT_KEY_PARAMETER, sortParameter);
+		}
+		
+		return keyset;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void setKeysetParameters(TypedQuery typedQuery, QueryPlan plan, KeysetCursor after, boolean sortValue) {
+		typedQuery.setParameter((Parameter) plan.getParameter(AFTER_ID_PARAMETER), after.getId());
+		
+		if (sortValue) {
+			typedQuery.setParameter((Parameter) plan.getParameter(AFTER_SORT_KEY_PARAMETER), after.getSortValue());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Predicate getKeysetComparison(CriteriaBuilder cb, Expression path, Expression parameter, boolean descending) {
+		return descending ? cb.lessThan(path, parameter) : cb.greaterThan(path, parameter);
+	}
+
+	/**
+	 * The sort key and identifier of an entity, in the order of {@link #orderByKeyset}
+	 */
+	protected KeysetCursor getKeyset(Object entity, SingularAttribute sortAttribute) {
+		return new KeysetCursor(sortAttribute != null ? getAttributeValue(entity, sortAttribute) : null, getIdentifier(entity));
+	}
+
+	/**
+	 * Turns the associations of the selection into an entity graph, so that the provider loads the selected associations
+	 * along with the results.  Associations with arguments are left to their own fetchers, and so are collections beyond
+	 * the first (fetching more than one collection at once multiplies the rows, and can't be done for bags).
+	 */
+	protected EntityGraph<?> getEntityGraph(DataFetchingEnvironment environment, Field field, boolean collections) {
+		EntityGraph<?> graph = getEntityManager(environment).createEntityGraph(entityType.getJavaType());
+		addSubgraphs(field, entityType, graph::addSubgraph, new boolean[] { !collections });
+		return graph;
+	}
+
+	private void addSubgraphs(Field field, ManagedType<?> type, Function<String, Subgraph<?>> addSubgraph, boolean[] collectionAdded) {
+		
+		if (field.getSelectionSet() == null) {
+			return;
+		}
+		
+		for (graphql.language.Selection selection : field.getSelectionSet().getSelections()) {
+			if (!(selection instanceof Field)) {
+				continue;
+			}
+			
+			Field selectedField = (Field) selection;
+			MetamodelIndex.IndexedAttribute indexedAttribute = metamodelIndex.getAttribute(type, selectedField.getName());
+			
+			if (indexedAttribute == null || !indexedAttribute.isAssociation() || !isUnfiltered(selectedField)) {
+				continue;
+			}
+			
+			Attribute attribute = indexedAttribute.getAttribute();
+			
+			ManagedType<?> targetType;
+			
+			if (attribute instanceof PluralAttribute) {
+				if (collectionAdded[0] || hasOrderBy(selectedField)) {
+					continue;
+				}
+				
+				collectionAdded[0] = true;
+				targetType = (ManagedType<?>) ((PluralAttribute) attribute).getElementType();
+			} else {
+				targetType = (ManagedType<?>) ((SingularAttribute) attribute).getType();
+			}
+			
+			Subgraph<?> subgraph = addSubgraph.apply(attribute.getName());
+			addSubgraphs(selectedField, targetType, subgraph::addSubgraph, collectionAdded);
+		}
+	}
+
+	private List<Object> getDistinctResults(List<?> results) {
+		Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		return results.stream().filter(seen::add).collect(Collectors.toList());
+	}
+
+	private boolean hasOrderBy(Field field) {
+		return field.getSelectionSet() != null && field.getSelectionSet().getSelections().stream()
+				.anyMatch(it -> it instanceof Field && ((Field) it).getArguments().stream().anyMatch(arg -> "orderBy".equals(arg.getName())));
+	}
+
+	/**
+	 * Whether joining the field can remove results of the query, which is the case when it (or any field below it) is
+	 * joined with anything other than a left join.
+	 */
+	private boolean isRestrictingJoin(Field field) {
+		
+		Optional<Argument> joinTypeArgument = field.getArguments().stream().filter(it -> "joinType".equals(it.getName())).findFirst();
+		
+		if (joinTypeArgument.isPresent() && !JoinType.LEFT.name().equals(((EnumValue) joinTypeArgument.get().getValue()).getName())) {
+			return true;
+		}
+		
+		return field.getSelectionSet() != null && field.getSelectionSet().getSelections().stream()
+				.anyMatch(it -> it instanceof Field && isRestrictingJoin((Field) it));
+	}
+
+	private boolean isToOneAssociation(Path path) {
+		if (!(path.getModel() instanceof SingularAttribute)) {
+			return false;
+		}
+		
+		Attribute.PersistentAttributeType attributeType = ((SingularAttribute) path.getModel()).getPersistentAttributeType();
+		return attributeType == Attribute.PersistentAttributeType.MANY_TO_ONE || attributeType == Attribute.PersistentAttributeType.ONE_TO_ONE;
+	}
+
+	protected boolean isFetchJoins(DataFetchingEnvironment environment) {
+		JpaExecutionContext context = getExecutionContext(environment);
+		return context != null && context.isFetchJoins();
+	}
+
+	protected boolean isEntityGraphs(DataFetchingEnvironment environment) {
+		JpaExecutionContext context = getExecutionContext(environment);
+		return context != null && context.isEntityGraphs();
+	}
+
+	/**
+	 * Whether this is an unfiltered association, that was already loaded along with the source (by a fetch join, or the
+	 * entity graph of the source's query).  Collections are only used as they are when they don't need to be ordered.
+	 */
+	protected boolean isFetchedAssociation(DataFetchingEnvironment environment, Field field) {
+		
+		Object source = environment.getSource();
+		
+		if (source == null || source instanceof PaginationResult || (!isFetchJoins(environment) && !isEntityGraphs(environment))) {
+			return false;
+		}
+		
+		MetamodelIndex.IndexedAttribute attribute = metamodelIndex.getAttribute(source.getClass(), field.getName());
+		
+		if (attribute == null || !attribute.isAssociation() 
+				|| (attribute.isCollection() && (!isEntityGraphs(environment) || hasOrderBy(field)))) {
+			return false;
+		}
+		
+		return isUnfiltered(field) && entityManager.getEntityManagerFactory().getPersistenceUnitUtil().isLoaded(source, field.getName());
+	}
+
+	/**
+	 * Whether the selection can be answered by selecting its columns, rather than loading entities: projection has to be
+	 * enabled, and every selected field has to be a basic attribute (as nothing else can be resolved from a map), with at
+	 * least one column to select.  Only top-level queries (and their pages) are projected.
+	 */
+	protected boolean isProjectable(DataFetchingEnvironment environment, Field field) {
+		
+		JpaExecutionContext context = getExecutionContext(environment);
+		Object source = environment.getSource();
+		
+		if (context == null || !context.isProjection() || field.getSelectionSet() == null
+				|| (source != null && !(source instanceof PaginationResult && ((PaginationResult) source).getParent() == null))) {
+			return false;
+		}
+		
+		boolean columns = false;
+		
+		for (graphql.language.Selection selection : field.getSelectionSet().getSelections()) {
+			if (!(selection instanceof Field)) {
+				return false;
+			}
+			
+			String name = ((Field) selection).getName();
+			
+			if ("__typename".equals(name)) {
+				continue;
+			}
+			
+			MetamodelIndex.IndexedAttribute attribute = metamodelIndex.getAttribute(entityType, name);
+			
+			if (attribute == null || !(attribute.getAttribute() instanceof SingularAttribute) 
+					|| attribute.getPersistentAttributeType() != Attribute.PersistentAttributeType.BASIC) {
+				return false;
+			}
+			
+			columns = true;
+		}
+		
+		return columns;
+	}
+
+	/**
+	 * Selects only the requested columns, returning a map of attribute name to value for each result, which avoids
+	 * creating (and managing) entities that would only be read once.
+	 */
+	private Object getProjectedResult(DataFetchingEnvironment environment, Field field) {
+		
+		List<Argument> arguments = getArguments(field);
+		List<String> names = field.getSelectionSet().getSelections().stream()
+				.map(it -> ((Field) it).getName())
+				.filter(it -> !"__typename".equals(it))
+				.distinct()
+				.collect(Collectors.toList());
+		
+		QueryPlan plan = getQueryPlan("projection", environment, field, () -> {
+			CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+			CriteriaQuery<Tuple> query = cb.createTupleQuery();
+			QueryPlan result = new QueryPlan(query, arguments);
+
+			Root root = buildCriteriaQuery(environment, field, cb, (CriteriaQuery) query, true, result);
+			List<javax.persistence.criteria.Selection<?>> selections = new ArrayList<>();
+			names.forEach(it -> selections.add(root.get(it).alias(it)));
+			query.multiselect(selections);
+			
+			return result;
+		});
+		
+		TypedQuery<Tuple> typedQuery = createTypedQuery(environment, plan, arguments);
+		
+		if (environment.getSource() instanceof PaginationResult) {
+			PaginationResult paginationResult = (PaginationResult) environment.getSource();
+			typedQuery.setMaxResults(paginationResult.getPageSize()).setFirstResult((paginationResult.getPage() - 1) * paginationResult.getPageSize());
+		}
+		
+		return getResultList(environment, typedQuery).stream().map(tuple -> {
+			Map<String, Object> row = new LinkedHashMap<>();
+			names.forEach(it -> row.put(it, tuple.get(it)));
+			return row;
+		}).collect(Collectors.toList());
+	}
+
+	/**
+	 * When only the identifier of a ToOne association is requested, the foreign key held by the source entity (or the
+	 * provider's proxy) already answers the query.
+	 */
+	protected boolean isIdentifierSelection(DataFetchingEnvironment environment, Field field) {
+		
+		Object source = environment.getSource();
+		
+		if (source == null || source instanceof PaginationResult || field.getSelectionSet() == null || !entityType.hasSingleIdAttribute()) {
+			return false;
+		}
+		
+		MetamodelIndex.IndexedAttribute attribute = metamodelIndex.getAttribute(source.getClass(), field.getName());
+		
+		if (attribute == null || !(attribute.getAttribute() instanceof SingularAttribute) || !attribute.isAssociation() 
+				|| !attribute.isOwningSide() || !isUnfiltered(field)) {
+			return false;
+		}
+		
+		String idName = metamodelIndex.getIdAttribute(entityType).getName();
+		
+		return field.getSelectionSet().getSelections().stream().allMatch(it -> it instanceof Field 
+				&& (idName.equals(((Field) it).getName()) || "__typename".equals(((Field) it).getName())));
+	}
+
+	private Object getIdentifierReference(DataFetchingEnvironment environment, Field field) {
+		
+		Object parent = environment.getSource();
+		Attribute attribute = metamodelIndex.getAttribute(parent.getClass(), field.getName()).getAttribute();
+		Object reference = getAttributeValue(parent, attribute);
+		
+		if (reference == null) {
+			return null;
+		}
+		
+		//reading the identifier through the proxy's getter could initialize it, so the value is served from a map instead
+		Map<String, Object> result = new HashMap<>();
+		result.put(metamodelIndex.getIdAttribute(entityType).getName(), getIdentifier(reference));
+		
+		return result;
+	}
+
+    protected JpaExecutionContext getExecutionContext(DataFetchingEnvironment environment) {
+		Object context = environment.getContext();
+		return context instanceof JpaExecutionContext ? (JpaExecutionContext) context : null;
     }
 
-    @Override
-    public Object get(DataFetchingEnvironment environment) {
+	/**
+	 * The EntityManager to query with: the request's, unless the root field of the selection is resolved in parallel to
+	 * the others, on an EntityManager of its own (see {@link ParallelRootExecutionStrategy}).
+	 */
+	protected EntityManager getEntityManager(DataFetchingEnvironment environment) {
+		EntityManager rootFieldEntityManager = getRootFieldEntityManager(environment);
+
+		if (rootFieldEntityManager != null) {
+			return rootFieldEntityManager;
+		}
+
+		JpaExecutionContext context = getExecutionContext(environment);
+		return context != null && context.getEntityManager() != null ? context.getEntityManager() : entityManager;
+	}
+
+	/**
+	 * Runs the query, once the request's {@link QueryLimiter} (if any) allows it
+	 */
+	protected <T> List<T> getResultList(DataFetchingEnvironment environment, TypedQuery<T> typedQuery) {
+		return limit(environment, typedQuery::getResultList);
+	}
+
+	protected <T> T getSingleResult(DataFetchingEnvironment environment, TypedQuery<T> typedQuery) {
+		return limit(environment, typedQuery::getSingleResult);
+	}
+
+	/**
+	 * Runs the query built from the plan, unless the request's {@link QueryMemo} (if any) holds the result of an identical
+	 * query
+	 */
+	private List getResultList(DataFetchingEnvironment environment, Field field, QueryPlan plan, TypedQuery typedQuery) {
+		JpaExecutionContext context = getExecutionContext(environment);
+		
+		if (plan == null || context == null || context.getQueryMemo() == null) {
+			return getResultList(environment, typedQuery);
+		}
+		
+		return context.getQueryMemo().get(getMemoKey(environment, field, plan, typedQuery), () -> getResultList(environment, typedQuery));
+	}
+	
+	/**
+	 * Everything that makes up the query: the EntityManager it runs on, the shape of the selection, the association of
+	 * the parent its filtered on, the page, and the values bound to the plan
+	 */
+	private List<Object> getMemoKey(DataFetchingEnvironment environment, Field field, QueryPlan plan, TypedQuery typedQuery) {
+		ParentReference reference = environment.getSource() != null ? getParentReference(environment) : null;
+		ParameterExpression<?> parentParameter = plan.getParameter(PARENT_PARAMETER);
+		List<Object> key = new ArrayList<>();
+		
+		key.add(getEntityManager(environment));
+		key.add(getPlanKey(getQueryType(environment), environment, field));
+		key.add(reference != null ? reference.getAttribute().getAttribute() : null);
+		key.add(environment.getSource() instanceof PaginationResult);
+		key.add(typedQuery.getFirstResult());
+		key.add(typedQuery.getMaxResults());
+		
+		for (QueryPlan.ArgumentBinding binding : plan.getArgumentBindings()) {
+			key.add(typedQuery.getParameterValue((Parameter) binding.getParameter()));
+		}
+		
+		//plans of a ToOne whose parent holds no entity have no parent parameter
+		key.add(parentParameter != null ? typedQuery.getParameterValue((Parameter) parentParameter) : null);
+		
+		return key;
+	}
+	
+	private <T> T limit(DataFetchingEnvironment environment, Supplier<T> query) {
+		JpaExecutionContext context = getExecutionContext(environment);
+		return context != null && context.getQueryLimiter() != null ? context.getQueryLimiter().execute(query) : query.get();
+	}
+
+	private EntityManager getRootFieldEntityManager(DataFetchingEnvironment environment) {
+		JpaExecutionContext context = getExecutionContext(environment);
+		String rootField = getRootField(environment);
+		return context != null && rootField != null ? context.getRootFieldEntityManager(rootField) : null;
+	}
+
+	/**
+	 * The key (alias or name) in the result of the root field that the selection is part of
+	 */
+	private String getRootField(DataFetchingEnvironment environment) {
+		
+		if (environment.getFieldTypeInfo() == null) {
+			return null;
+		}
+		
+		List<Object> path = environment.getFieldTypeInfo().getPath().toList();
+		return !path.isEmpty() ? String.valueOf(path.get(0)) : null;
+	}
+
+	/**
+	 * Only nested associations, requested directly from an entity (not through a Connection, which pages each parent
+	 * separately), are loaded in batches.
+	 */
+	protected boolean isBatchable(DataFetchingEnvironment environment, Field field) {
+		
+		Object source = environment.getSource();
+		
+		if (source == null || source instanceof PaginationResult) {
+			return false;
+		}
+		
+		EntityType<?> parentType = metamodelIndex.getEntityType(source.getClass());
+		
+		if (parentType == null || metamodelIndex.getIdAttribute(parentType) == null) {
+			return false;
+		}
+		
+		MetamodelIndex.IndexedAttribute attribute = metamodelIndex.getAttribute(parentType, field.getName());
+		
+		return attribute != null && attribute.isAssociation();
+	}
+
+	/**
+	 * Resolves this association for the source entity and all of its siblings at once, then serves the source's share of
+	 * the result.  The siblings resolved later on find their results already loaded.
+	 */
+	protected Object getBatchedResult(DataFetchingEnvironment environment, Field field, JpaExecutionContext context) {
+		
+		Object parent = environment.getSource();
+		EntityType parentType = metamodelIndex.getEntityType(parent.getClass());
+		MetamodelIndex.IndexedAttribute indexedAttribute = metamodelIndex.getAttribute(parentType, field.getName());
+		Attribute attribute = indexedAttribute.getAttribute();
+		
+		//the owning side of a ToOne association already holds the identifier of the related entity
+		if (attribute instanceof SingularAttribute && indexedAttribute.isOwningSide()) {
+			return getBatchedReference(environment, field, context, parent, attribute);
+		}
+		
+		//query from the entity declaring the association, so that siblings of different subclasses share a single batch
+		EntityType queryType = attribute.getDeclaringType() instanceof EntityType ? (EntityType) attribute.getDeclaringType() : parentType;
+		
+		Map<Object, Object> batchResults = context.getBatchResults(getBatchKey(environment, field, queryType));
+		Object parentId = getIdentifier(parent);
+		
+		if (!batchResults.containsKey(parentId)) {
+			Set<Object> parentIds = new LinkedHashSet<>();
+			parentIds.add(parentId);
+			
+			for (Object sibling : context.getSiblings(parent)) {
+				if (queryType.getJavaType().isInstance(sibling)) {
+					Object siblingId = getIdentifier(sibling);
+					
+					if (!batchResults.containsKey(siblingId)) {
+						parentIds.add(siblingId);
+					}
+				}
+			}
+			
+			List<Object> ids = new ArrayList<>(parentIds);
+			
+			for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+				batchResults.putAll(getBatchQueryResults(environment, field, queryType, ids.subList(i, Math.min(i + BATCH_SIZE, ids.size())), context));
+			}
+		}
+		
+		List<Object> result = (List<Object>) batchResults.get(parentId);
+		
+		if (attribute instanceof SingularAttribute) {
+			return result.isEmpty() ? null : result.get(0);
+		}
+		
+		return result;
+	}
+
+	/**
+	 * Resolves a ToOne association by the identifiers held by the source entity and its siblings, with a single query
+	 * for all identifiers that aren't already loaded.
+	 */
+	private Object getBatchedReference(DataFetchingEnvironment environment, Field field, JpaExecutionContext context, Object parent, Attribute attribute) {
+		
+		Object reference = getAttributeValue(parent, attribute);
+		
+		if (reference == null) {
+			return null;
+		}
+		
+		PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+		boolean unfiltered = isUnfiltered(field);
+		
+		//without any filtering, an entity already in the persistence context is the answer
+		if (unfiltered && persistenceUnitUtil.isLoaded(reference)) {
+			return reference;
+		}
+		
+		Map<Object, Object> batchResults = context.getBatchResults(getBatchKey(environment, field, entityType));
+		Object referenceId = getIdentifier(reference);
+		
+		if (!batchResults.containsKey(referenceId)) {
+			Set<Object> referenceIds = new LinkedHashSet<>();
+			referenceIds.add(referenceId);
+			
+			for (Object sibling : context.getSiblings(parent)) {
+				if (attribute.getDeclaringType().getJavaType().isInstance(sibling)) {
+					Object siblingReference = getAttributeValue(sibling, attribute);
+					
+					if (siblingReference != null && !(unfiltered && persistenceUnitUtil.isLoaded(siblingReference))) {
+						Object siblingReferenceId = getIdentifier(siblingReference);
+						
+						if (!batchResults.containsKey(siblingReferenceId)) {
+							referenceIds.add(siblingReferenceId);
+						}
+					}
+				}
+			}
+			
+			List<Object> ids = new ArrayList<>(referenceIds);
+			
+			for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+				batchResults.putAll(getReferenceQueryResults(environment, field, ids.subList(i, Math.min(i + BATCH_SIZE, ids.size())), context));
+			}
+		}
+		
+		return batchResults.get(referenceId);
+	}
+
+	private Map<Object, Object> getReferenceQueryResults(DataFetchingEnvironment environment, Field field, Collection<Object> ids, JpaExecutionContext context) {
+		
+		List<Argument> arguments = getArguments(field);
+		
+		QueryPlan plan = getQueryPlan("reference" + getFetchMode(environment), environment, field, () -> {
+			CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+			CriteriaQuery<Object> query = cb.createQuery((Class) entityType.getJavaType());
+			QueryPlan result = new QueryPlan(query, arguments);
+
+			Root root = query.from(entityType);
+
+			List<Predicate> predicates = new ArrayList<>();
+			getQueryHelper(environment, field, cb, query, root, root, true, result, predicates);
+
+			predicates.addAll(field.getArguments().stream()
+					.filter(it -> (!"orderBy".equals(it.getName()) && !"joinType".equals(it.getName())))
+					.map(it -> getArgumentPredicate(cb, query, root, environment, it, result))
+					.collect(Collectors.toList()));
+			
+			ParameterExpression<Collection> idsParameter = cb.parameter(Collection.class);
+			result.addParameter(IDS_PARAMETER, idsParameter);
+			predicates.add(root.get(metamodelIndex.getIdAttribute(entityType).getName()).in(idsParameter));
+
+			query.where(predicates.toArray(EMPTY_PREDICATES));
+			
+			return result;
+		});
 		
-		Object result = null;
+		TypedQuery typedQuery = createTypedQuery(environment, plan, arguments);
+		typedQuery.setParameter((Parameter) plan.getParameter(IDS_PARAMETER), padInList(ids));
+		
+		if (metamodelIndex.isCacheable(entityType)) {
+			typedQuery.setHint(CACHEABLE_HINT, Boolean.TRUE);
+		}
+		
+		//identifiers filtered out by the arguments resolve to null
+		Map<Object, Object> result = new HashMap<>();
+		ids.forEach(it -> result.put(it, null));
+		
+		List<Object> entities = getResultList(environment, typedQuery);
+		entities.forEach(it -> result.put(getIdentifier(it), it));
+		
+		context.registerSiblings(entities);
+		
+		return result;
+	}
+
+	/**
+	 * A field is unfiltered when neither its arguments nor the joins of its selection can remove its value
+	 */
+	private boolean isUnfiltered(Field field) {
+		
+		if (field.getArguments().stream().anyMatch(it -> !"orderBy".equals(it.getName()) && !"joinType".equals(it.getName()))) {
+			return false;
+		}
+		
+		if (field.getSelectionSet() != null) {
+			for (graphql.language.Selection selection : field.getSelectionSet().getSelections()) {
+				if (selection instanceof Field) {
+					Optional<Argument> joinTypeArgument = ((Field) selection).getArguments().stream().filter(it -> "joinType".equals(it.getName())).findFirst();
+					
+					if (joinTypeArgument.isPresent() && !JoinType.LEFT.name().equals(((EnumValue) joinTypeArgument.get().getValue()).getName())) {
+						return false;
+					}
+				}
+			}
+		}
+		
+		return true;
+	}
+
+	/**
+	 * Reads the value of an attribute directly from the entity, which for lazy associations is the provider's
+	 * uninitialized proxy.
+	 */
+	protected Object getAttributeValue(Object entity, Attribute attribute) {
+		MetamodelIndex.IndexedAttribute indexedAttribute = metamodelIndex.getAttribute(entity.getClass(), attribute.getName());
+		return indexedAttribute != null ? indexedAttribute.getValue(metamodelIndex.unproxy(entity)) : null;
+	}
+
+	/**
+	 * The identifier of the entity, which for a proxy is read without initializing it.
+	 */
+	protected Object getIdentifier(Object entity) {
+		return metamodelIndex.getIdentifier(entity, entityManager.getEntityManagerFactory().getPersistenceUnitUtil());
+	}
+
+	private Map<Object, List<Object>> getBatchQueryResults(DataFetchingEnvironment environment, Field field, EntityType parentType, 
+			Collection<Object> parentIds, JpaExecutionContext context) {
+		
+		List<Argument> arguments = getArguments(field);
+		
+		QueryPlan plan = getQueryPlan("batch:" + parentType.getName() + getFetchMode(environment), environment, field, () -> {
+			CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+			CriteriaQuery<Object> query = (CriteriaQuery) cb.createQuery(Object[].class);
+			QueryPlan result = new QueryPlan(query, arguments);
+
+			Root parentRoot = query.from(parentType);
+			Path parentIdPath = parentRoot.get(metamodelIndex.getIdAttribute(parentType).getName());
+
+			//an inner join is sufficient, parents without any children are given an empty list below
+			Join join = parentRoot.join(field.getName());
+
+			processOrderBy(field, join, query, cb);
+			List<Predicate> predicates = new ArrayList<>();
+			getQueryHelper(environment, field, cb, query, join, join, true, result, predicates);
+
+			predicates.addAll(field.getArguments().stream()
+					.filter(it -> (!"orderBy".equals(it.getName()) && !"joinType".equals(it.getName())))
+					.map(it -> getArgumentPredicate(cb, query, join, environment, it, result))
+					.collect(Collectors.toList()));
+			
+			ParameterExpression<Collection> parentIdsParameter = cb.parameter(Collection.class);
+			result.addParameter(PARENT_IDS_PARAMETER, parentIdsParameter);
+			predicates.add(parentIdPath.in(parentIdsParameter));
+
+			query.multiselect(parentIdPath, join);
+			query.where(predicates.toArray(EMPTY_PREDICATES));
+			
+			return result;
+		});
+		
+		TypedQuery typedQuery = createTypedQuery(environment, plan, arguments);
+		typedQuery.setParameter((Parameter) plan.getParameter(PARENT_IDS_PARAMETER), padInList(parentIds));
+		
+		if (metamodelIndex.isCacheable(entityType)) {
+			typedQuery.setHint(CACHEABLE_HINT, Boolean.TRUE);
+		}
+		
+		Map<Object, List<Object>> result = new HashMap<>();
+		parentIds.forEach(it -> result.put(it, new ArrayList<>()));
+		
+		List<Object[]> rows = getResultList(environment, typedQuery);
+		List<Object> children = new ArrayList<>(rows.size());
+		
+		for (Object[] row : rows) {
+			result.get(row[0]).add(row[1]);
+			children.add(row[1]);
+		}
+		
+		//the children of every parent in this batch make up the next level of the execution tree
+		context.registerSiblings(children);
+		
+		return result;
+	}
+
+	private String getBatchKey(DataFetchingEnvironment environment, Field field, EntityType parentType) {
+		//the printed field covers the arguments, ordering and joins of the selection, the arguments cover variable values
+		String key = parentType.getName() + "." + field.getName() + ":" + AstPrinter.printAst(field) + ":" + environment.getArguments();
+		
+		//entities of root fields resolved in parallel belong to different EntityManagers, so they can't share batches
+		return getRootFieldEntityManager(environment) != null ? getRootField(environment) + "/" + key : key;
+	}
+
+	/**
+	 * Finds the entity class of the given instance, looking through any proxy subclass created by the JPA provider
+	 */
+	protected Class getEntityClass(Object instance) {
+		EntityType<?> instanceType = metamodelIndex.getEntityType(instance.getClass());
+		return instanceType != null ? instanceType.getJavaType() : null;
+	}
+
+    protected TypedQuery getQuery(DataFetchingEnvironment environment, Field field) {
+		
+		List<Argument> arguments = getArguments(field);
+		QueryPlan plan = getQueryPlan(environment, field, arguments);
+		
+        return createTypedQuery(environment, plan, arguments);
+    }
+
+	private QueryPlan getQueryPlan(DataFetchingEnvironment environment, Field field, List<Argument> arguments) {
+		return getQueryPlan(getQueryType(environment), environment, field, () -> {
+			CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+			CriteriaQuery<Object> query = cb.createQuery((Class) entityType.getJavaType());
+			QueryPlan result = new QueryPlan(query, arguments);
+
+			buildCriteriaQuery(environment, field, cb, query, true, result);
+			//query.distinct(true);
+			
+			return result;
+		});
+	}
+
+	private String getQueryType(DataFetchingEnvironment environment) {
+		return "query" + getFetchMode(environment);
+	}
+
+	/**
+	 * The part of a plan's key for the way its associations are fetched, which every plan that fetches the selected
+	 * associations along with its results (through fetch joins or an entity graph) has to be keyed by
+	 */
+	protected String getFetchMode(DataFetchingEnvironment environment) {
+		return (isFetchJoins(environment) ? ":fetch" : "") + (isEntityGraphs(environment) ? ":graph" : "");
+	}
+
+	/**
+	 * Builds (and caches) the plans this fetcher would use for the selection, without running any query.  Used to compile
+	 * persisted queries before their first execution.  Only plans that can be cached are built.
+	 */
+	public void prepare(DataFetchingEnvironment environment) {
 		Field field = environment.getFields().iterator().next();
 		
-		TypedQuery typedQuery = getQuery(environment, field);
+		if (isRootQuery(environment)) {
+			getQueryPlan(environment, field, getArguments(field));
+		}
+	}
+
+	/**
+	 * Finds the plan for this selection in the cache, or builds (and caches) it.  Plans depend on nothing but the shape of
+	 * the selection and the association of the parent, as the arguments and the parent are bound through the plan.
+	 */
+	protected QueryPlan getQueryPlan(String queryType, DataFetchingEnvironment environment, Field field, Supplier<QueryPlan> planBuilder) {
 		
-		//if this is an entity that we specifically marked for caching, let's cache it
-		if (entityType.getBindableJavaType().getAnnotation(Cacheable.class) != null) {
-			//TODO: it would be nice for this not to be hibernate specific
-			typedQuery.setHint("org.hibernate.cacheable", Boolean.TRUE);
+		if (queryPlanCache == null) {
+			return planBuilder.get().complete();
 		}
 		
-		if (environment.getSource() instanceof PaginationResult) {
-			PaginationResult paginationResult = (PaginationResult) environment.getSource();
-			typedQuery.setMaxResults(paginationResult.getPageSize()).setFirstResult((paginationResult.getPage() - 1) * paginationResult.getPageSize());
+		String key = getPlanKey(queryType, environment, field);
+		QueryPlan plan = queryPlanCache.get(key);
+		
+		if (plan == null) {
+			plan = planBuilder.get().complete();
+			
+			//create the query once before sharing the plan, so that the provider has nothing left to initialize on it
+			getEntityManager(environment).createQuery(plan.getCriteriaQuery());
+			queryPlanCache.put(key, plan);
 		}
 		
-		if (environment.getSource() != null && !(environment.getSource() instanceof PaginationResult)) {
-			List resultList = typedQuery.getResultList();
+		return plan;
+	}
+
+	private String getPlanKey(String queryType, DataFetchingEnvironment environment, Field field) {
+		return queryType + ":" + entityType.getName() + getParentKey(environment) + ":" + getSelectionShape(environment, field);
+	}
+
+	/**
+	 * The part of a nested plan's key for the association of the parent its filtered on (the parent itself is bound as
+	 * a parameter), which is empty for queries without a parent
+	 */
+	private String getParentKey(DataFetchingEnvironment environment) {
+		ParentReference reference = environment.getSource() != null ? getParentReference(environment) : null;
+		
+		if (reference == null) {
+			return "";
+		}
+		
+		//the parent's type matters for attributes inherited from a superclass, and may be an embeddable's
+		Attribute<?, ?> attribute = reference.getAttribute().getAttribute();
+		EntityType<?> parentType = metamodelIndex.getEntityType(reference.getParent().getClass());
+		String key = ":" + (parentType != null ? parentType.getName() : attribute.getDeclaringType().getJavaType().getName()) + "." + attribute.getName();
+		
+		return isEmptyToOne(reference) ? key + ":null" : key;
+	}
+
+	/**
+	 * Whether the parent holds no entity for a ToOne it owns, which is filtered on null instead of on a parameter
+	 */
+	private boolean isEmptyToOne(ParentReference reference) {
+		MetamodelIndex.IndexedAttribute attribute = reference.getAttribute();
+		Attribute.PersistentAttributeType type = attribute.getPersistentAttributeType();
+		
+		return (type == Attribute.PersistentAttributeType.ONE_TO_ONE || type == Attribute.PersistentAttributeType.MANY_TO_ONE)
+				&& attribute.getMappedBy() == null && getParentParameterValue(reference) == null;
+	}
+
+	protected boolean isRootQuery(DataFetchingEnvironment environment) {
+		return environment.getSource() == null 
+				|| (environment.getSource() instanceof PaginationResult && ((PaginationResult) environment.getSource()).getParent() == null);
+	}
+
+	protected TypedQuery createTypedQuery(DataFetchingEnvironment environment, QueryPlan plan, List<Argument> arguments) {
+		EntityManager entityManager = getEntityManager(environment);
+		TypedQuery typedQuery = createTypedQuery(entityManager, environment, plan, arguments);
+		
+		//nothing is written outside of the request's own transaction
+		if (entityManager != this.entityManager) {
+			typedQuery.setHint(READ_ONLY_HINT, Boolean.TRUE);
+		}
+		
+		return typedQuery;
+	}
 
-			Member member = null;
+	protected TypedQuery createTypedQuery(EntityManager entityManager, DataFetchingEnvironment environment, QueryPlan plan, List<Argument> arguments) {
+		
+		TypedQuery typedQuery = entityManager.createQuery(plan.getCriteriaQuery());
+		
+		for (QueryPlan.ArgumentBinding binding : plan.getArgumentBindings()) {
+			Argument argument = arguments.get(binding.getIndex());
+			Object value = convertValue(environment, argument, argument.getValue());
+			ArgumentConverter converter = binding.getConverter();
 			
-			if (environment.getSource().getClass().getAnnotation(Entity.class) != null) {
-				member = entityManager.getMetamodel().entity(environment.getSource().getClass()).getAttribute(field.getName()).getJavaMember();
-			} else if (environment.getSource().getClass().getAnnotation(Embeddable.class) != null) {
-				member = entityManager.getMetamodel().embeddable(environment.getSource().getClass()).getAttribute(field.getName()).getJavaMember();
+			if (binding.isCollection()) {
+				value = padInList(((Collection<?>) value).stream().map(converter::convert).collect(Collectors.toList()));
+			} else {
+				value = converter.convert(value);
 			}
 			
-			java.lang.reflect.Field property = (java.lang.reflect.Field) member;
+			typedQuery.setParameter((Parameter) binding.getParameter(), value);
+		}
+		
+		ParameterExpression<?> parentParameter = plan.getParameter(PARENT_PARAMETER);
+		
+		if (parentParameter != null) {
+			typedQuery.setParameter((Parameter) parentParameter, getParentParameterValue(getParentReference(environment)));
+		}
+		
+		return typedQuery;
+	}
 
-			if (Collection.class.isAssignableFrom(property.getType())) {
-				result = resultList;
-			} else {
-				if (resultList.size() == 1) {
-					result = resultList.get(0);
+	/**
+	 * All arguments within the selection of the field (including the field's own arguments), depth first in the order
+	 * they are written.  This is the order in which a {@link QueryPlan} refers to the arguments.
+	 */
+	protected List<Argument> getArguments(Field field) {
+		List<Argument> arguments = new ArrayList<>();
+		addArguments(field, arguments);
+		return arguments;
+	}
+
+	private void addArguments(Field field, List<Argument> arguments) {
+		
+		arguments.addAll(field.getArguments());
+		
+		if (field.getSelectionSet() != null) {
+			field.getSelectionSet().getSelections().stream().filter(it -> it instanceof Field).forEach(it -> addArguments((Field) it, arguments));
+		}
+	}
+
+	/**
+	 * Describes everything about the selection that changes the generated query: the fields, the ordering and join types,
+	 * and whether an argument holds one or many values.  The argument values themselves are left out.
+	 */
+	private String getSelectionShape(DataFetchingEnvironment environment, Field field) {
+		StringBuilder shape = new StringBuilder();
+		appendSelectionShape(environment, field, shape);
+		return shape.toString();
+	}
+
+	private void appendSelectionShape(DataFetchingEnvironment environment, Field field, StringBuilder shape) {
+		
+		shape.append(field.getName());
+		
+		if (!field.getArguments().isEmpty()) {
+			shape.append('(');
+			
+			for (Argument argument : field.getArguments()) {
+				shape.append(argument.getName()).append(':');
+				
+				if ("orderBy".equals(argument.getName()) || "joinType".equals(argument.getName())) {
+					shape.append(AstPrinter.printAst(argument.getValue()));
 				} else {
-					log.warn("Potentially unexpected number of results returned: " + resultList.size());
+					shape.append(isCollectionValue(environment, argument) ? "[]" : "_");
 				}
+				
+				shape.append(' ');
 			}
 			
-		} else {
-			result = typedQuery.getResultList();
+			shape.append(')');
 		}
 		
-        return result;
-    }
+		if (field.getSelectionSet() != null) {
+			shape.append('{');
+			
+			field.getSelectionSet().getSelections().stream().filter(it -> it instanceof Field).forEach(it -> {
+				appendSelectionShape(environment, (Field) it, shape);
+				shape.append(' ');
+			});
+			
+			shape.append('}');
+		}
+	}
 
-    protected TypedQuery getQuery(DataFetchingEnvironment environment, Field field) {
+	/**
+	 * Determines whether convertValue will produce a collection for this argument, without converting it
+	 */
+	private boolean isCollectionValue(DataFetchingEnvironment environment, Argument argument) {
 		
-        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-        CriteriaQuery<Object> query = cb.createQuery((Class) entityType.getJavaType());
-		
-		buildCriteriaQuery(environment, field, cb, query, true);
-		//query.distinct(true);
+		if (argument.getValue() instanceof ArrayValue) {
+			return true;
+		} else if (argument.getValue() instanceof VariableReference) {
+			return getVariableValue(environment, argument, (VariableReference) argument.getValue()) instanceof Collection;
+		}
 		
-        return entityManager.createQuery(query);
-    }
+		return false;
+	}
 
-    protected Root buildCriteriaQuery(DataFetchingEnvironment environment, Field field, CriteriaBuilder cb, CriteriaQuery<Object> query, boolean isFullQuery) {
+    protected Root buildCriteriaQuery(DataFetchingEnvironment environment, Field field, CriteriaBuilder cb, CriteriaQuery<Object> query, boolean isFullQuery, QueryPlan plan) {
         
 		Root root = query.from(entityType);
 		
@@ -106,21 +1172,21 @@ public class JpaDataFetcher implements DataFetcher {
 			processOrderBy(field, root, query, cb);
 		}
 
-		//recurse through the child fields
-		getQueryHelper(environment, field, cb, query, root, root, isFullQuery);
-
 		List<Predicate> predicates = new ArrayList<>();
 
+		//recurse through the child fields
+		getQueryHelper(environment, field, cb, query, root, root, isFullQuery, plan, predicates);
+
 		//arguments to the top-level field
 		predicates.addAll(field.getArguments().stream()
 				.filter(it -> (!"orderBy".equals(it.getName()) && !"joinType".equals(it.getName())))
-				.map(it -> getPredicate(cb, getRootArgumentPath(root, it), environment, it))
+				.map(it -> getArgumentPredicate(cb, query, root, environment, it, plan))
 				.collect(Collectors.toList()));
 
 		//if there is a source, this is a nested query, we need to apply the filtering from the parent
 		//we check to ensure that this isn't a count query because the parent is not an entity in that case
 		if (environment.getSource() != null) {
-			Predicate predicate = getPredicateForParent(environment, cb, root, query);
+			Predicate predicate = getPredicateForParent(environment, cb, root, query, plan);
 		
 			if (predicate != null) {
 				predicates.add(predicate);
@@ -132,8 +1198,14 @@ public class JpaDataFetcher implements DataFetcher {
 		return root;
     }
 	
+	/**
+	 * Joins the associations of the selection that have to be part of the query.
+	 *
+	 * @param restrictions receives the predicates of the associations that are filtered through a subquery, instead of
+	 * being joined
+	 */
 	protected void getQueryHelper(DataFetchingEnvironment environment, Field field, 
-			CriteriaBuilder cb, CriteriaQuery<Object> query, From from, Path path, boolean parentFetched) {
+			CriteriaBuilder cb, CriteriaQuery<Object> query, From from, Path path, boolean parentFetched, QueryPlan plan, List<Predicate> restrictions) {
 		
 		//the selectionSet may be null when dealing with count queries
 		if (field.getSelectionSet() != null) {
@@ -149,7 +1221,7 @@ public class JpaDataFetcher implements DataFetcher {
 								field.getSelectionSet().getSelections().stream().filter(it -> ("content".equals(((Field)it).getName()))).findFirst();
 						
 						if (content.isPresent()) {
-							getQueryHelper(environment, (Field) content.get(), cb, query, from, path, parentFetched);
+							getQueryHelper(environment, (Field) content.get(), cb, query, from, path, parentFetched, plan, restrictions);
 						}
 						
 					} else if (!"__typename".equals(selectedField.getName())) {
@@ -167,33 +1239,48 @@ public class JpaDataFetcher implements DataFetcher {
 
 						List<Argument> arguments = selectedField.getArguments().stream()
 									.filter(it -> (!"orderBy".equals(it.getName()) && !"joinType".equals(it.getName())))
-									.map(it -> new Argument(it.getName(), it.getValue()))
 									.collect(Collectors.toList());
 
 						boolean fetched = false;
 						Join join = null;
 
+						//we can eagerly fetch TO_ONE associations assuming that the parent was also eagerly fetched
+						//hibernate doesn't allow fetches with 'with-clauses' so if there are arguments, we can't fetch
+						
+						//fetching is only done for the content query (parentFetched is false for count queries, and sub-queries
+						//are built separately), and only when enabled for the request (entity graphs load the associations otherwise)
+						boolean fetchable = parentFetched && arguments.size() == 0 && isFetchJoins(environment) && !isEntityGraphs(environment) 
+								&& isToOneAssociation(fieldPath);
+						
+						//the nested fetchers query the association on their own, so a join is only needed to fetch it, or when it
+						//removes results (a left join, even with arguments, keeps every result, and would only repeat them)
+						if (!fetchable && !isRestrictingJoin(selectedField)) {
+							return;
+						}
+
 						// Check if it's an object and the foreign side is One.  Then we can eagerly fetch causing an inner join instead of 2 queries
 						if (fieldPath.getModel() instanceof SingularAttribute) {
-							SingularAttribute attribute = (SingularAttribute) fieldPath.getModel();
-							if (attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.MANY_TO_ONE || attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.ONE_TO_ONE) {
-								//we can eagerly fetch TO_ONE associations assuming that the parent was also eagerly fetched
-								//hibernate doesn't allow fetches with 'with-clauses' so if there are arguments, we can't fetch
-								
-								//disabled fetching due to issues with sub-queries and count queries
-								/* if (parentFetched && arguments.size() == 0) {
-									join = (Join) from.fetch(selectedField.getName(), joinType);
-									fetched = true;
-								} else { */
-									join = from.join(selectedField.getName(), joinType);
-								//}
+							if (fetchable) {
+								join = (Join) from.fetch(selectedField.getName(), joinType);
+								fetched = true;
+							} else if (isToOneAssociation(fieldPath)) {
+								join = from.join(selectedField.getName(), joinType);
 							}
 
 						} else { //Otherwise, assume the foreign side is many
 							if (selectedField.getSelectionSet() != null) {
-								//Fetch fetch = from.fetch(selectedField.getName(), joinType);
-								//TODO: if we fetch, update the boolean
+								EntityType<?> parentType = metamodelIndex.getEntityType(from.getJavaType());
+								
+								//a ToMany join that is only kept to filter would repeat the results, so it's checked with a semi-join
+								if (parentType != null) {
+									restrictions.add(getExistsPredicate(environment, selectedField, cb, query, from, parentType, arguments, plan));
+									return;
+								}
+								
 								join = from.join(selectedField.getName(), joinType);
+								
+								//the results are repeated for every element of the collection
+								query.distinct(true);
 							}
 						}
 
@@ -204,18 +1291,12 @@ public class JpaDataFetcher implements DataFetcher {
 						}
 
 						if (join != null) {
-							/* If we have a join, assume we need to distinct the query
-							 * TODO: Realistically, we should only need to do this then the join is a ToMany join, because 
-							 * that will be responsible for expanding the result set.
-							 */
-							query.distinct(true);
-							
 							final Join forLambda = (Join) join;
 
-							getQueryHelper(environment, selectedField, cb, query, ((From)forLambda), ((Join) forLambda), fetched);
+							getQueryHelper(environment, selectedField, cb, query, ((From)forLambda), ((Join) forLambda), fetched, plan, restrictions);
 
 							List<Predicate> joinPredicates = arguments.stream().map(
-									it -> getPredicate(cb, ((Join) forLambda).get(it.getName()), environment, it)).collect(Collectors.toList()
+									it -> getPredicate(cb, ((Join) forLambda).get(it.getName()), environment, it, plan)).collect(Collectors.toList()
 								);
 
 							// don't blow away an existing condition
@@ -223,8 +1304,10 @@ public class JpaDataFetcher implements DataFetcher {
 								joinPredicates.add(forLambda.getOn());
 							}
 
-							//add the predicates to the on to faciliate outer joins
-							forLambda.on(joinPredicates.toArray(EMPTY_PREDICATES));
+							//add the predicates to the on to faciliate outer joins (fetches can't have one, and never have predicates)
+							if (!fetched) {
+								forLambda.on(joinPredicates.toArray(EMPTY_PREDICATES));
+							}
 						}
 					}
 				}
@@ -233,100 +1316,111 @@ public class JpaDataFetcher implements DataFetcher {
 		
 	}
 
-	private Predicate getPredicate(CriteriaBuilder cb, Path path, DataFetchingEnvironment environment, Argument argument) {
+	/**
+	 * Builds an exists subquery for a ToMany association, that matches the parent when any element of the association
+	 * matches the arguments (and the joins below it).  As the association is only joined to filter, the outer join
+	 * semantics don't matter: a left join with children that are inner joined removes the same results.
+	 */
+	private Predicate getExistsPredicate(DataFetchingEnvironment environment, Field field, CriteriaBuilder cb, CriteriaQuery<Object> query, 
+			From parent, EntityType<?> parentType, List<Argument> arguments, QueryPlan plan) {
+		
+		Subquery<Object> subquery = query.subquery((Class) parentType.getJavaType());
+		Root subqueryRoot = subquery.from(parentType);
+		Join join = subqueryRoot.join(field.getName(), JoinType.INNER);
+		
+		List<Predicate> predicates = new ArrayList<>();
+		predicates.add(cb.equal(subqueryRoot, parent));
+		
+		getQueryHelper(environment, field, cb, query, join, join, false, plan, predicates);
+		
+		predicates.addAll(arguments.stream().map(it -> getPredicate(cb, join.get(it.getName()), environment, it, plan)).collect(Collectors.toList()));
+		
+		subquery.select(subqueryRoot).where(predicates.toArray(EMPTY_PREDICATES));
+		return cb.exists(subquery);
+	}
+
+	private Predicate getPredicate(CriteriaBuilder cb, Path path, DataFetchingEnvironment environment, Argument argument, QueryPlan plan) {
             
-			//this must be an object in case an enum is returned
-			Object value = convertValue(environment, argument, argument.getValue());
+			//the value is bound as a parameter when the query is created, so that the plan can be reused for other values
+			Class javaType = getParameterType(path.getJavaType());
 			
-			if (value instanceof Collection) {
-				return path.in((Collection)value);
+			if (isCollectionValue(environment, argument)) {
+				ParameterExpression<Collection> parameter = cb.parameter(Collection.class);
+				plan.bindArgument(parameter, argument, javaType, true);
+				return path.in(parameter);
 			} else {
-				return cb.equal(path, value);
+				ParameterExpression parameter = cb.parameter(javaType);
+				plan.bindArgument(parameter, argument, javaType, false);
+				return cb.equal(path, parameter);
 			}
     }
 
+	protected Class getParameterType(Class javaType) {
+		if (!javaType.isPrimitive()) {
+			return javaType;
+		} else if (int.class.equals(javaType)) {
+			return Integer.class;
+		} else if (long.class.equals(javaType)) {
+			return Long.class;
+		} else if (short.class.equals(javaType)) {
+			return Short.class;
+		} else if (boolean.class.equals(javaType)) {
+			return Boolean.class;
+		} else if (double.class.equals(javaType)) {
+			return Double.class;
+		} else if (float.class.equals(javaType)) {
+			return Float.class;
+		} else if (byte.class.equals(javaType)) {
+			return Byte.class;
+		}
+		
+		return Character.class;
+	}
+
+	/**
+	 * The value of the argument as written in the query (or sent as a variable), which the {@link ArgumentConverter} of
+	 * its binding converts to the type of the attribute.
+	 */
     protected Object convertValue(DataFetchingEnvironment environment, Argument argument, Value value) {
-        if (value instanceof StringValue) {
-			Object convertedValue = null;
-			//TODO: The UUID behavior causes issues if you attempt to parse further down the hierarchy
-			if (environment.getArguments() != null && environment.getArguments().containsKey(argument.getName())) {
-				 convertedValue = environment.getArgument(argument.getName()); //This only works when dealing with the top level object
-			}
-		   
-            if (convertedValue != null && convertedValue instanceof UUID) { 
-                // Return real parameter for instance UUID even if the Value is a StringValue
-                return convertedValue;
-            } else if (convertedValue != null && convertedValue instanceof List) {
-				List convertedValueList = (List) convertedValue;
-				
-				//TODO: this won't properly handle queries on multiple UUIDs
-				if (!convertedValueList.isEmpty()) {
-					convertedValue = convertedValueList.get(0);
-					if (convertedValue instanceof UUID) {
-						return convertedValue;
-					}
-				}
-			} 
-			
-			// Return provided StringValue
-			return ((StringValue) value).getValue();
-        }
+        if (value instanceof StringValue)
+            return ((StringValue) value).getValue();
         else if (value instanceof VariableReference)
-			//the VariableReference value is the name of the variable - the variable value is not passed as an argument to the environment
-			//instead the graphql-java library does the substitution, so we can just ask for the desired argument
-            //return environment.getArguments().get(((VariableReference) value).getName());
-			return environment.getArguments().get(argument.getName());
+            return getVariableValue(environment, argument, (VariableReference) value);
         else if (value instanceof ArrayValue)
             return ((ArrayValue) value).getValues().stream().map((it) -> convertValue(environment, argument, it)).collect(Collectors.toList());
-        else if (value instanceof EnumValue) {
-			//TODO: why does this rely on the environment - This likely doesn't work for nested values
-            Class enumType = getJavaType(environment, argument);
-            return Enum.valueOf(enumType, ((EnumValue) value).getName());
-        } else if (value instanceof IntValue) {
+        else if (value instanceof EnumValue)
+            return ((EnumValue) value).getName();
+        else if (value instanceof IntValue)
             return ((IntValue) value).getValue();
-        } else if (value instanceof BooleanValue) {
+        else if (value instanceof BooleanValue)
             return ((BooleanValue) value).isValue();
-        } else if (value instanceof FloatValue) {
+        else if (value instanceof FloatValue)
             return ((FloatValue) value).getValue();
-        }
 
         return value.toString();
     }
 
-    private Class getJavaType(DataFetchingEnvironment environment, Argument argument) {
-        Attribute argumentEntityAttribute = getAttribute(environment, argument);
-
-        if (argumentEntityAttribute instanceof PluralAttribute)
-            return ((PluralAttribute) argumentEntityAttribute).getElementType().getJavaType();
-
-        return argumentEntityAttribute.getJavaType();
-    }
-
-    private Attribute getAttribute(DataFetchingEnvironment environment, Argument argument) {
-        GraphQLObjectType objectType = getObjectType(environment, argument);
-        EntityType entityType = getEntityType(objectType);
-
-        return entityType.getAttribute(argument.getName());
-    }
-
-    private EntityType getEntityType(GraphQLObjectType objectType) {
-        return entityManager.getMetamodel().getEntities().stream().filter(it -> it.getName().equals(objectType.getName())).findFirst().get();
-    }
-
-    private GraphQLObjectType getObjectType(DataFetchingEnvironment environment, Argument argument) {
-        GraphQLType outputType = environment.getFieldType();
-        if (outputType instanceof GraphQLList)
-            outputType = ((GraphQLList) outputType).getWrappedType();
-
-        if (outputType instanceof GraphQLObjectType)
-            return (GraphQLObjectType) outputType;
-
-        return null;
-    }
+	/**
+	 * The arguments of the environment are only those of the fetched field (already parsed by their scalars), the
+	 * variables used further down the selection are read from the request.
+	 */
+	private Object getVariableValue(DataFetchingEnvironment environment, Argument argument, VariableReference variable) {
+		
+		if (environment.getFields().get(0).getArguments().stream().anyMatch(it -> it == argument)) {
+			return environment.getArguments().get(argument.getName());
+		} else if (environment.getContext() instanceof JpaExecutionContext) {
+			Map<String, Object> variables = ((JpaExecutionContext) environment.getContext()).getVariables();
+			return variables != null ? variables.get(variable.getName()) : null;
+		}
+		
+		return environment.getArguments().get(argument.getName());
+	}
 
-	private Predicate getPredicateForParent(DataFetchingEnvironment environment, CriteriaBuilder cb, Root root, CriteriaQuery query) {
+	/**
+	 * The entity (and its attribute) whose value a nested query is fetching, or null for queries without a parent
+	 */
+	private ParentReference getParentReference(DataFetchingEnvironment environment) {
 		
-		Predicate result = null;
 		Object parent = null;
 		String fieldName = null;
 		
@@ -345,53 +1439,57 @@ public class JpaDataFetcher implements DataFetcher {
 		}
 		
 		if (fieldName != null) {
-			//get the source, this will be used to filter the query
+			MetamodelIndex.IndexedAttribute attribute = metamodelIndex.getAttribute(parent.getClass(), fieldName);
 			
-			Member member = null;
-			
-			if (parent.getClass().getAnnotation(Entity.class) != null) {
-				member = entityManager.getMetamodel().entity(parent.getClass()).getAttribute(fieldName).getJavaMember();
-			} else if (parent.getClass().getAnnotation(Embeddable.class) != null) {
-				member = entityManager.getMetamodel().embeddable(parent.getClass()).getAttribute(fieldName).getJavaMember();
+			if (attribute != null) {
+				return new ParentReference(parent, attribute);
 			}
+		}
+		
+		return null;
+	}
 
-			//TODO: this might need criteria for method as javaField.getAnnotation(OneToMany.class);
-			if (member instanceof java.lang.reflect.Field) {
-				java.lang.reflect.Field javaField = (java.lang.reflect.Field) member;
-
-				OneToOne oneToOne = javaField.getAnnotation(OneToOne.class);
-				OneToMany oneToMany = javaField.getAnnotation(OneToMany.class);
-				ManyToOne manyToOne = javaField.getAnnotation(ManyToOne.class);
-				ManyToMany manyToMany = javaField.getAnnotation(ManyToMany.class);
-
-				if (oneToOne != null && oneToOne.mappedBy() != null && !"".equals(oneToOne.mappedBy().trim())) { //TODO: use StringUtils instead?
-					result = cb.equal(root.get(oneToOne.mappedBy()), cb.literal(parent));
-				} else if (oneToMany != null) { 
-					String mappedBy = oneToMany.mappedBy();
-					if (mappedBy != null && !"".equals(mappedBy.trim())) { //TODO: use StringUtils instead?
-						result = cb.equal(root.get(mappedBy), cb.literal(parent));
-					} else {
-						Subquery subQuery = generateSubQuery(query, root, parent, cb, fieldName);
-						result = root.in(subQuery);
-					}
-				} else if (manyToMany != null) {
-
-					Subquery subQuery = generateSubQuery(query, root, parent, cb, fieldName);
-					result = root.in(subQuery);
-				} else if ( manyToOne != null || oneToOne != null) {
-					result = getFieldValueThroughHibernateProxy(parent, fieldName, cb, root);
-					
-					if (result == null) {
-						result = getFieldValueAsLiteral(parent, fieldName, cb, root);
-					}
+	/**
+	 * Filters the query on the parent, which is bound to the query as a parameter (see {@link #getParentParameterValue}),
+	 * so that the SQL is the same for every parent.
+	 */
+	private Predicate getPredicateForParent(DataFetchingEnvironment environment, CriteriaBuilder cb, Root root, CriteriaQuery query, QueryPlan plan) {
+		
+		ParentReference reference = getParentReference(environment);
+		
+		if (reference == null) {
+			return null;
+		}
+		
+		MetamodelIndex.IndexedAttribute attribute = reference.getAttribute();
+		EntityType<?> parentType = metamodelIndex.getEntityType(reference.getParent().getClass());
+		String mappedBy = attribute.getMappedBy();
+		
+		switch (attribute.getPersistentAttributeType()) {
+			case ONE_TO_ONE:
+			case MANY_TO_ONE:
+				if (mappedBy != null) {
+					return cb.equal(getIdentifierPath(root.get(mappedBy), parentType), addParentParameter(cb, plan, parentType));
+				} else if (isEmptyToOne(reference)) {
+					return cb.isNull(root);
 				}
-			}
+				
+				//the parent holds the related entity (or its proxy), whose identifier is all that's needed
+				return cb.equal(getIdentifierPath(root, entityType), addParentParameter(cb, plan, entityType));
+			case ONE_TO_MANY:
+				if (mappedBy != null) {
+					return cb.equal(getIdentifierPath(root.get(mappedBy), parentType), addParentParameter(cb, plan, parentType));
+				}
+				
+				return root.in(generateSubQuery(query, root, parentType, cb, attribute.getAttribute().getName(), plan));
+			case MANY_TO_MANY:
+				return root.in(generateSubQuery(query, root, parentType, cb, attribute.getAttribute().getName(), plan));
+			default:
+				return null;
 		}
-			
-		return result;
 	}
 
-	private Subquery generateSubQuery(CriteriaQuery query, Root root, Object parent, CriteriaBuilder cb, String fieldName) {
+	private Subquery generateSubQuery(CriteriaQuery query, Root root, EntityType<?> parentType, CriteriaBuilder cb, String fieldName, QueryPlan plan) {
 		//the OneToOne case is also intended here
 		
 		/* Since the @ManyToMany only needs to be defined one side we can't assume that this side has a clean mapping
@@ -401,72 +1499,65 @@ public class JpaDataFetcher implements DataFetcher {
 		* This link provides guidance: https://stackoverflow.com/questions/4483576/jpa-2-0-criteria-api-subqueries-in-expressions
 		*/
 		Subquery subQuery = query.subquery(root.getJavaType());
-		Root subQueryRoot = subQuery.from(parent.getClass());
-		subQuery.where(cb.equal(subQueryRoot, cb.literal(parent)));
+		Root subQueryRoot = subQuery.from(parentType);
+		subQuery.where(cb.equal(getIdentifierPath(subQueryRoot, parentType), addParentParameter(cb, plan, parentType)));
 		Join subQueryJoin = subQueryRoot.join(fieldName);
 		subQuery.select(subQueryJoin);
 		return subQuery;
 	}
 
-	private Predicate getFieldValueThroughHibernateProxy(Object parent, String fieldName, CriteriaBuilder cb, Root root) {
-
-		Predicate result = null;
-		
-		//This implementation may be fragile if hibernate changes it's implementation.  However, the performance benefits
-		//of using the id is much better than using a subquery
-		Class clazz = parent.getClass();
-		try {
-			java.lang.reflect.Field field = clazz.getDeclaredField(fieldName);
-			field.setAccessible(true);
-
-			Object fieldValue = field.get(parent);
-
-			if (fieldValue != null) {
-				java.lang.reflect.Field handlerField = fieldValue.getClass().getDeclaredField("handler");
-				handlerField.setAccessible(true);
-
-				Object handler = handlerField.get(fieldValue);
+	/**
+	 * The identifier of the entity at the path, or the entity itself when it has a composite identifier
+	 */
+	private Expression getIdentifierPath(Path path, EntityType<?> type) {
+		SingularAttribute idAttribute = metamodelIndex.getIdAttribute(type);
+		return idAttribute != null ? path.get(idAttribute.getName()) : path;
+	}
 
-				try {
-					if (Class.forName("org.hibernate.proxy.LazyInitializer").isAssignableFrom(handler.getClass())) {
-						Method getIdentifier = handler.getClass().getMethod("getIdentifier", (Class[]) null);
-						result = cb.equal(root, getIdentifier.invoke(handler, (Object[]) null));
-					}
-				} catch (NoSuchMethodException | InvocationTargetException ex) {
-					log.warn("Error attempting to process hibernate proxy");
-					log.debug("Error invoking method", ex);
-				} catch (ClassNotFoundException ex) {
-					//This just means that we're not using hibernate
-					log.warn("Unable process hibernate proxy - Hibernate does not appear to be present");
-				}
-			} else {
-				result = cb.isNull(root);
-			}
+	private ParameterExpression addParentParameter(CriteriaBuilder cb, QueryPlan plan, EntityType<?> type) {
+		SingularAttribute idAttribute = metamodelIndex.getIdAttribute(type);
+		ParameterExpression parameter = cb.parameter(idAttribute != null ? getParameterType(idAttribute.getJavaType()) : type.getJavaType());
+		plan.addParameter(PARENT_PARAMETER, parameter);
+		return parameter;
+	}
 
-		} catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException ex) {
-				log.warn("Error attempting to process hibernate proxy");
-				log.debug("Error accessing field", ex);
+	/**
+	 * The value compared by {@link #getPredicateForParent}: the identifier of the parent, or for an association owned by
+	 * the parent, of the entity it refers to (which may be null).
+	 */
+	private Object getParentParameterValue(ParentReference reference) {
+		
+		Object entity = reference.getParent();
+		
+		if (reference.getAttribute().isOwningSide() && !reference.getAttribute().isCollection()) {
+			entity = reference.getAttribute().getValue(metamodelIndex.unproxy(entity));
 		}
 		
-		return result;
+		if (entity == null) {
+			return null;
+		}
+		
+		return metamodelIndex.getIdAttribute(metamodelIndex.getEntityType(entity.getClass())) != null ? getIdentifier(entity) : entity;
 	}
-	
-	private Predicate getFieldValueAsLiteral(Object parent, String fieldName, CriteriaBuilder cb, Root root) {
+
+	/**
+	 * Pads an IN list to the next power of two (by repeating its last value), so that lists of different lengths share
+	 * a few SQL statements, along with their prepared statements and database plans.
+	 */
+	protected static Collection<?> padInList(Collection<?> values) {
 		
-		Predicate result = null;
+		int size = values.size();
 		
-		Class clazz = parent.getClass();
-		try {
-			java.lang.reflect.Field field = clazz.getDeclaredField(fieldName);
-			field.setAccessible(true);
-
-			Object fieldValue = field.get(parent);
-
-			result = cb.equal(root, cb.literal(fieldValue));
-			
-		} catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException ex) {
-				log.warn("Error attempting to get field value");
-				log.debug("Error accessing field", ex);
+		if (size < 3 || Integer.bitCount(size) == 1) {
+			return values;
+		}
+		
+		List<Object> result = new ArrayList<>(Integer.highestOneBit(size) << 1);
+		result.addAll(values);
+		Object last = result.get(size - 1);
+		
+		while (result.size() < Integer.highestOneBit(size) << 1) {
+			result.add(last);
 		}
 		
 		return result;
@@ -511,10 +1602,55 @@ public class JpaDataFetcher implements DataFetcher {
 		}
 	}
 
-	private Path getRootArgumentPath(Root root, Argument it) {
-		//This only needs to the join case when we're querying by an ENUM, otherwise the arguments will be "primitive" values
-		return root.get(it.getName()).getModel() instanceof SingularAttribute ? root.get(it.getName()): root.join(it.getName(), JoinType.LEFT);
+	private Predicate getArgumentPredicate(CriteriaBuilder cb, CriteriaQuery<?> query, From root, DataFetchingEnvironment environment, Argument it, QueryPlan plan) {
+		if (root.get(it.getName()).getModel() instanceof SingularAttribute) {
+			return getPredicate(cb, root.get(it.getName()), environment, it, plan);
+		}
+		
+		//This is only the case when we're querying by a collection of ENUMs, otherwise the arguments will be "primitive" values
+		//a join would repeat the results that match more than one element, so it's checked with a semi-join
+		Subquery<Object> subquery = query.subquery((Class) root.getJavaType());
+		Root subqueryRoot = subquery.from(root.getJavaType());
+		Join join = subqueryRoot.join(it.getName(), JoinType.INNER);
+		
+		subquery.select(subqueryRoot).where(cb.equal(subqueryRoot, root), getPredicate(cb, join, environment, it, plan));
+		return cb.exists(subquery);
 	}
 	
 	private static final Predicate[] EMPTY_PREDICATES = {};
+	
+	//Hibernate's query hints, which other providers ignore
+	protected static final String CACHEABLE_HINT = "org.hibernate.cacheable";
+	protected static final String READ_ONLY_HINT = "org.hibernate.readOnly";
+	protected static final String FETCH_SIZE_HINT = "org.hibernate.fetchSize";
+	
+	//keeps the IN lists of batched queries within the limits of common databases
+	protected static final int BATCH_SIZE = 500;
+	
+	private static final String PARENT_IDS_PARAMETER = "parentIds";
+	private static final String IDS_PARAMETER = "ids";
+	private static final String PARENT_PARAMETER = "parent";
+	private static final String AFTER_ID_PARAMETER = "afterId";
+
+	private static final String AFTER_SORT_KEY_PARAMETER = "afterSortKey";
+
+	private static final class ParentReference {
+
+		private final Object parent;
+
+		private final MetamodelIndex.IndexedAttribute attribute;
+
+		private ParentReference(Object parent, MetamodelIndex.IndexedAttribute attribute) {
+			this.parent = parent;
+			this.attribute = attribute;
+		}
+
+		public Object getParent() {
+			return parent;
+		}
+
+		public MetamodelIndex.IndexedAttribute getAttribute() {
+			return attribute;
+		}
+	}
 }
\ No newline at end of file
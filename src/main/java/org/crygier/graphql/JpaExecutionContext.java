@@ -0,0 +1,237 @@
+package org.crygier.graphql;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Request scoped state shared between the data fetchers of a single execution.  An instance is handed to graphql-java
+ * as the execution context by the {@link GraphQLExecutor}, and is available to the fetchers through
+ * DataFetchingEnvironment.getContext().
+ */
+public class JpaExecutionContext {
+
+	private final boolean batchFetching;
+
+	private final Map<String, Object> variables;
+
+	private RowCountEstimator rowCountEstimator;
+
+	private Executor countExecutor;
+
+	private boolean projection;
+
+	private boolean fetchJoins;
+
+	private boolean entityGraphs;
+
+	private Executor rootFieldExecutor;
+
+	private QueryLimiter queryLimiter;
+
+	private EntityManager entityManager;
+
+	private StreamWindow streamWindow;
+
+	private IncrementalDelivery incrementalDelivery;
+
+	private QueryMemo queryMemo;
+
+	//the EntityManagers of the root fields resolved in parallel, by the field's key in the result
+	private final Map<String, EntityManager> rootFieldEntityManagers = new ConcurrentHashMap<>();
+
+	//every entity returned by a fetcher, mapped to the entities fetched alongside of it (the same level of the execution tree)
+	private final Map<Object, List<Object>> siblings = Collections.synchronizedMap(new IdentityHashMap<>());
+
+	//results of batched association loads, keyed by the association / selection and then by the parent's identifier
+	private final Map<String, Map<Object, Object>> batchResults = new ConcurrentHashMap<>();
+
+	public JpaExecutionContext(boolean batchFetching) {
+		this(batchFetching, Collections.emptyMap());
+	}
+
+	public JpaExecutionContext(boolean batchFetching, Map<String, Object> variables) {
+		this.batchFetching = batchFetching;
+		this.variables = variables;
+	}
+
+	public boolean isBatchFetching() {
+		return batchFetching;
+	}
+
+	/**
+	 * The variables of the request, as sent by the client.  These are only needed by fetchers that run the query of a
+	 * field other than their own (graphql-java only resolves the arguments of the field being fetched).
+	 */
+	public Map<String, Object> getVariables() {
+		return variables;
+	}
+
+	public RowCountEstimator getRowCountEstimator() {
+		return rowCountEstimator;
+	}
+
+	public void setRowCountEstimator(RowCountEstimator rowCountEstimator) {
+		this.rowCountEstimator = rowCountEstimator;
+	}
+
+	/**
+	 * When set, Connections count their results on this executor while their page is loaded
+	 */
+	public Executor getCountExecutor() {
+		return countExecutor;
+	}
+
+	public void setCountExecutor(Executor countExecutor) {
+		this.countExecutor = countExecutor;
+	}
+
+	/**
+	 * When enabled, selections of only basic attributes are loaded as maps of their columns instead of entities
+	 */
+	public boolean isProjection() {
+		return projection;
+	}
+
+	public void setProjection(boolean projection) {
+		this.projection = projection;
+	}
+
+	/**
+	 * When enabled, unfiltered ToOne associations are loaded with a fetch join by the content query of their parent
+	 */
+	public boolean isFetchJoins() {
+		return fetchJoins;
+	}
+
+	public void setFetchJoins(boolean fetchJoins) {
+		this.fetchJoins = fetchJoins;
+	}
+
+	/**
+	 * When enabled, the selected associations are loaded through an entity graph instead of joins
+	 */
+	public boolean isEntityGraphs() {
+		return entityGraphs;
+	}
+
+	public void setEntityGraphs(boolean entityGraphs) {
+		this.entityGraphs = entityGraphs;
+	}
+
+	/**
+	 * When set, root fields resolved by JPA fetchers run at the same time on this executor, each on an EntityManager of
+	 * its own
+	 */
+	public Executor getRootFieldExecutor() {
+		return rootFieldExecutor;
+	}
+
+	public void setRootFieldExecutor(Executor rootFieldExecutor) {
+		this.rootFieldExecutor = rootFieldExecutor;
+	}
+
+	/**
+	 * When set, every query run by the fetchers waits for a permit of this limiter, which is shared by the requests
+	 */
+	public QueryLimiter getQueryLimiter() {
+		return queryLimiter;
+	}
+
+	public void setQueryLimiter(QueryLimiter queryLimiter) {
+		this.queryLimiter = queryLimiter;
+	}
+
+	/**
+	 * The EntityManager of the request, when it isn't the one the fetchers were created with (for requests executed on
+	 * another thread, outside of the caller's transaction)
+	 */
+	public EntityManager getEntityManager() {
+		return entityManager;
+	}
+
+	public void setEntityManager(EntityManager entityManager) {
+		this.entityManager = entityManager;
+	}
+
+	/**
+	 * When set, the root field of the window only loads the window's chunk of its results
+	 */
+	public StreamWindow getStreamWindow() {
+		return streamWindow;
+	}
+
+	public void setStreamWindow(StreamWindow streamWindow) {
+		this.streamWindow = streamWindow;
+	}
+
+	/**
+	 * When set, fields and fragments marked with @defer, and the items of lists marked with @stream, are left to the
+	 * delivery instead of being resolved with the rest of the result
+	 */
+	public IncrementalDelivery getIncrementalDelivery() {
+		return incrementalDelivery;
+	}
+
+	public void setIncrementalDelivery(IncrementalDelivery incrementalDelivery) {
+		this.incrementalDelivery = incrementalDelivery;
+	}
+
+	/**
+	 * When set, the results of the fetchers' queries are kept for the request, and identical queries aren't run again
+	 */
+	public QueryMemo getQueryMemo() {
+		return queryMemo;
+	}
+
+	public void setQueryMemo(QueryMemo queryMemo) {
+		this.queryMemo = queryMemo;
+	}
+
+	/**
+	 * @param rootField the key of a root field in the result (its alias, or name)
+	 * @return the EntityManager that the root field, and everything selected below it, is resolved on, or null when it is
+	 * resolved on the request's EntityManager
+	 */
+	public EntityManager getRootFieldEntityManager(String rootField) {
+		return rootFieldEntityManagers.get(rootField);
+	}
+
+	public void setRootFieldEntityManager(String rootField, EntityManager entityManager) {
+		if (entityManager != null) {
+			rootFieldEntityManagers.put(rootField, entityManager);
+		} else {
+			rootFieldEntityManagers.remove(rootField);
+		}
+	}
+
+	/**
+	 * Records the given entities as siblings of each other.  An entity keeps the first group it was registered with, so
+	 * registering the same entity again at a deeper level has no effect.
+	 */
+	public void registerSiblings(Collection<?> entities) {
+		List<Object> group = Collections.unmodifiableList(new ArrayList<>(entities));
+
+		for (Object entity : group) {
+			if (entity != null) {
+				siblings.putIfAbsent(entity, group);
+			}
+		}
+	}
+
+	public List<Object> getSiblings(Object entity) {
+		List<Object> group = siblings.get(entity);
+		return group != null ? group : Collections.singletonList(entity);
+	}
+
+	public Map<Object, Object> getBatchResults(String batchKey) {
+		return batchResults.computeIfAbsent(batchKey, key -> new HashMap<>());
+	}
+}
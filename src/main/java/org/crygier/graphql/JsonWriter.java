@@ -0,0 +1,94 @@
+package org.crygier.graphql;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes the (already serialized) values of an execution result as JSON.  The library doesn't depend on a JSON library,
+ * and results only hold maps, lists, strings, numbers and booleans, anything else is written as a string.
+ */
+public final class JsonWriter {
+
+	private JsonWriter() {}
+
+	public static void write(Object value, Writer writer) throws IOException {
+
+		if (value == null) {
+			writer.write("null");
+		} else if (value instanceof Map) {
+			writer.write('{');
+			Iterator<? extends Map.Entry<?, ?>> entries = ((Map<?, ?>) value).entrySet().iterator();
+
+			while (entries.hasNext()) {
+				Map.Entry<?, ?> entry = entries.next();
+				writeString(String.valueOf(entry.getKey()), writer);
+				writer.write(':');
+				write(entry.getValue(), writer);
+
+				if (entries.hasNext()) {
+					writer.write(',');
+				}
+			}
+
+			writer.write('}');
+		} else if (value instanceof Iterable) {
+			writer.write('[');
+			Iterator<?> elements = ((Iterable<?>) value).iterator();
+
+			while (elements.hasNext()) {
+				write(elements.next(), writer);
+
+				if (elements.hasNext()) {
+					writer.write(',');
+				}
+			}
+
+			writer.write(']');
+		} else if (value instanceof Boolean || (value instanceof Number && isFinite((Number) value))) {
+			writer.write(value.toString());
+		} else {
+			writeString(value.toString(), writer);
+		}
+	}
+
+	private static boolean isFinite(Number number) {
+		return !(number instanceof Double || number instanceof Float) || Double.isFinite(number.doubleValue());
+	}
+
+	private static void writeString(String value, Writer writer) throws IOException {
+		writer.write('"');
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+				case '"':
+					writer.write("\\\"");
+					break;
+				case '\\':
+					writer.write("\\\\");
+					break;
+				case '\n':
+					writer.write("\\n");
+					break;
+				case '\r':
+					writer.write("\\r");
+					break;
+				case '\t':
+					writer.write("\\t");
+					break;
+				default:
+					//control characters have to be escaped, and the line separators are escaped for JavaScript
+					if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+						writer.write(String.format("\\u%04x", (int) c));
+					} else {
+						writer.write(c);
+					}
+			}
+		}
+
+		writer.write('"');
+	}
+}
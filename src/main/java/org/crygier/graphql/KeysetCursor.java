@@ -0,0 +1,218 @@
+package org.crygier.graphql;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The position of keyset pagination: the sort key (which may be null) and identifier of the last entity of a page,
+ * which the next page starts after.  Cursors are opaque to clients, but are only Base64 encoded text (and never serialized objects), so
+ * that decoding a cursor can't instantiate anything but the attribute types.
+ */
+public class KeysetCursor {
+
+	//the sort field and value are preceded by their length, so that they may contain any character
+	private static final char LENGTH_END = ':';
+
+	//replaces the length of a null sort value, so that it can be told apart from an empty string
+	private static final char NULL_VALUE = '-';
+
+	//the factories of the attribute types, which are only looked up once per type
+	private static final Map<Class<?>, ValueParser> PARSERS = new ConcurrentHashMap<>();
+
+	private final Object sortValue;
+
+	private final Object id;
+
+	public KeysetCursor(Object sortValue, Object id) {
+		this.sortValue = sortValue;
+		this.id = id;
+	}
+
+	public Object getSortValue() {
+		return sortValue;
+	}
+
+	public Object getId() {
+		return id;
+	}
+
+	/**
+	 * @param sortField the attribute the page is ordered by, or null when it is only ordered by the identifier
+	 */
+	public String encode(String sortField, Class<?> sortType, Class<?> idType) {
+		StringBuilder text = new StringBuilder();
+		appendPart(text, sortField != null ? sortField : "");
+
+		if (sortValue != null) {
+			appendPart(text, toText(sortValue, sortType));
+		} else {
+			text.append(NULL_VALUE);
+		}
+
+		text.append(toText(id, idType));
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(text.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void appendPart(StringBuilder text, String part) {
+		text.append(part.length()).append(LENGTH_END).append(part);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the cursor is malformed, or was created for a different ordering
+	 */
+	public static KeysetCursor decode(String cursor, String sortField, Class<?> sortType, Class<?> idType) {
+		String text;
+
+		try {
+			text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+		}
+
+		CursorReader reader = new CursorReader(text, cursor);
+
+		if (!reader.readPart().equals(sortField != null ? sortField : "")) {
+			throw new IllegalArgumentException("The cursor " + cursor + " was not created for the requested ordering");
+		}
+
+		boolean nullSortValue = reader.readNull();
+
+		//pages that are only ordered by the identifier don't have a sort value
+		if (sortField == null && !nullSortValue) {
+			throw new IllegalArgumentException("Invalid cursor: " + cursor);
+		}
+
+		String sortText = nullSortValue ? null : reader.readPart();
+
+		return new KeysetCursor(sortText != null ? fromText(sortText, sortType) : null, fromText(reader.readRest(), idType));
+	}
+
+	private static String toText(Object value, Class<?> type) {
+		if (value == null) {
+			return "";
+		} else if (value instanceof Enum) {
+			return ((Enum) value).name();
+		} else if (Date.class.equals(type)) {
+			return String.valueOf(((Date) value).getTime());
+		}
+
+		return value.toString();
+	}
+
+	private static Object fromText(String text, Class<?> type) {
+		if (text.isEmpty() && !String.class.equals(type)) {
+			return null;
+		}
+
+		ValueParser parser = PARSERS.computeIfAbsent(box(type), KeysetCursor::getParser);
+
+		try {
+			return parser.parse(text);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new IllegalArgumentException("Invalid cursor value '" + text + "' for " + type.getName(), e);
+		}
+	}
+
+	private static ValueParser getParser(Class<?> type) {
+		if (String.class.equals(type)) {
+			return text -> text;
+		} else if (Date.class.equals(type)) {
+			return text -> new Date(Long.parseLong(text));
+		} else if (Character.class.equals(type)) {
+			return text -> text.charAt(0);
+		}
+
+		//valueOf covers the wrappers, enums and java.sql dates, fromString UUID, and parse the java.time types
+		for (String factory : new String[] { "valueOf", "fromString", "parse" }) {
+			for (Method method : type.getMethods()) {
+				if (method.getName().equals(factory) && Modifier.isStatic(method.getModifiers()) && method.getParameterCount() == 1
+						&& method.getParameterTypes()[0].isAssignableFrom(String.class) && type.isAssignableFrom(method.getReturnType())) {
+					return text -> method.invoke(null, text);
+				}
+			}
+		}
+
+		return text -> type.getConstructor(String.class).newInstance(text);
+	}
+
+	private static class CursorReader {
+
+		private final String text;
+
+		private final String cursor;
+
+		private int position;
+
+		CursorReader(String text, String cursor) {
+			this.text = text;
+			this.cursor = cursor;
+		}
+
+		String readPart() {
+			int lengthEnd = text.indexOf(LENGTH_END, position);
+
+			if (lengthEnd < 0) {
+				throw new IllegalArgumentException("Invalid cursor: " + cursor);
+			}
+
+			int length;
+
+			try {
+				length = Integer.parseUnsignedInt(text.substring(position, lengthEnd));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+			}
+
+			if (length > text.length() - lengthEnd - 1) {
+				throw new IllegalArgumentException("Invalid cursor: " + cursor);
+			}
+
+			position = lengthEnd + 1 + length;
+			return text.substring(lengthEnd + 1, position);
+		}
+
+		boolean readNull() {
+			if (position < text.length() && text.charAt(position) == NULL_VALUE) {
+				position++;
+				return true;
+			}
+
+			return false;
+		}
+
+		String readRest() {
+			return text.substring(position);
+		}
+	}
+
+	private interface ValueParser {
+		Object parse(String text) throws ReflectiveOperationException;
+	}
+
+	private static Class<?> box(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return type;
+		} else if (int.class.equals(type)) {
+			return Integer.class;
+		} else if (long.class.equals(type)) {
+			return Long.class;
+		} else if (short.class.equals(type)) {
+			return Short.class;
+		} else if (boolean.class.equals(type)) {
+			return Boolean.class;
+		} else if (double.class.equals(type)) {
+			return Double.class;
+		} else if (float.class.equals(type)) {
+			return Float.class;
+		} else if (byte.class.equals(type)) {
+			return Byte.class;
+		}
+
+		return Character.class;
+	}
+}
@@ -0,0 +1,339 @@
+package org.crygier.graphql;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.Cacheable;
+import javax.persistence.ManyToMany;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * The parts of the JPA metamodel (and of the mapping annotations) that the fetchers need while executing, looked up once
+ * when the schema is built, instead of being searched for (or reflected upon) for every entity.  Attribute values are
+ * read through method handles, also created once per attribute.
+ */
+public class MetamodelIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(MetamodelIndex.class);
+
+	private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private final Map<String, EntityType<?>> entitiesByName = new HashMap<>();
+
+	private final Map<Class<?>, ManagedType<?>> managedTypesByClass = new HashMap<>();
+
+	private final Map<ManagedType<?>, Map<String, IndexedAttribute>> attributes = new HashMap<>();
+
+	private final Map<EntityType<?>, SingularAttribute<?, ?>> idAttributes = new HashMap<>();
+
+	private final Set<EntityType<?>> cacheableEntities = new HashSet<>();
+
+	//the classes that aren't part of the metamodel themselves (e.g. proxies), resolved as they are met
+	private final Map<Class<?>, Optional<ManagedType<?>>> resolvedClasses = new ConcurrentHashMap<>();
+
+	//the accessors of the provider's proxy classes, found as they are met
+	private final Map<Class<?>, Optional<ProxyAccessor>> proxyAccessors = new ConcurrentHashMap<>();
+
+	public MetamodelIndex(Metamodel metamodel) {
+
+		for (EntityType<?> entityType : metamodel.getEntities()) {
+			entitiesByName.put(entityType.getName(), entityType);
+
+			if (entityType.hasSingleIdAttribute()) {
+				idAttributes.put(entityType, entityType.getId(entityType.getIdType().getJavaType()));
+			}
+
+			if (entityType.getJavaType().getAnnotation(Cacheable.class) != null) {
+				cacheableEntities.add(entityType);
+			}
+		}
+
+		Stream.concat(metamodel.getEntities().stream(), metamodel.getEmbeddables().stream()).forEach(managedType -> {
+			managedTypesByClass.put(managedType.getJavaType(), managedType);
+
+			Map<String, IndexedAttribute> typeAttributes = new HashMap<>();
+
+			for (Attribute<?, ?> attribute : managedType.getAttributes()) {
+				typeAttributes.put(attribute.getName(), new IndexedAttribute(attribute));
+			}
+
+			attributes.put(managedType, Collections.unmodifiableMap(typeAttributes));
+		});
+	}
+
+	/**
+	 * @param name the name of the entity, which is also the name of its GraphQL type
+	 */
+	public EntityType<?> getEntityType(String name) {
+		return entitiesByName.get(name);
+	}
+
+	/**
+	 * @return the entity mapped by the class, or by its closest mapped superclass (for subclasses such as proxies), or
+	 * null when it isn't an entity
+	 */
+	public EntityType<?> getEntityType(Class<?> javaType) {
+		ManagedType<?> managedType = getManagedType(javaType);
+		return managedType instanceof EntityType ? (EntityType<?>) managedType : null;
+	}
+
+	/**
+	 * @return the entity or embeddable mapped by the class, or by its closest mapped superclass
+	 */
+	public ManagedType<?> getManagedType(Class<?> javaType) {
+		ManagedType<?> managedType = managedTypesByClass.get(javaType);
+
+		if (managedType != null) {
+			return managedType;
+		}
+
+		return resolvedClasses.computeIfAbsent(javaType, key -> {
+			for (Class<?> clazz = key.getSuperclass(); clazz != null; clazz = clazz.getSuperclass()) {
+				if (managedTypesByClass.containsKey(clazz)) {
+					return Optional.of(managedTypesByClass.get(clazz));
+				}
+			}
+
+			return Optional.empty();
+		}).orElse(null);
+	}
+
+	public IndexedAttribute getAttribute(ManagedType<?> managedType, String name) {
+		Map<String, IndexedAttribute> typeAttributes = attributes.get(managedType);
+		return typeAttributes != null ? typeAttributes.get(name) : null;
+	}
+
+	/**
+	 * @return the attribute of the entity or embeddable the class maps, or null when either isn't mapped
+	 */
+	public IndexedAttribute getAttribute(Class<?> javaType, String name) {
+		ManagedType<?> managedType = getManagedType(javaType);
+		return managedType != null ? getAttribute(managedType, name) : null;
+	}
+
+	/**
+	 * @return the identifier attribute, or null for entities with a composite identifier
+	 */
+	public SingularAttribute<?, ?> getIdAttribute(EntityType<?> entityType) {
+		return idAttributes.get(entityType);
+	}
+
+	public boolean isCacheable(EntityType<?> entityType) {
+		return cacheableEntities.contains(entityType);
+	}
+
+	/**
+	 * @return the identifier of the entity, which for a proxy is read without initializing it
+	 */
+	public Object getIdentifier(Object entity, PersistenceUnitUtil persistenceUnitUtil) {
+		ProxyAccessor proxyAccessor = getProxyAccessor(entity.getClass());
+		return proxyAccessor != null ? invoke(proxyAccessor.identifier, entity) : persistenceUnitUtil.getIdentifier(entity);
+	}
+
+	/**
+	 * The fields of a proxy are never populated, they have to be read from the proxied implementation (which initializes
+	 * it).  Anything but a proxy is returned as it is.
+	 */
+	public Object unproxy(Object entity) {
+		ProxyAccessor proxyAccessor = getProxyAccessor(entity.getClass());
+		return proxyAccessor != null ? invoke(proxyAccessor.implementation, entity) : entity;
+	}
+
+	private ProxyAccessor getProxyAccessor(Class<?> javaType) {
+		
+		//mapped classes are never proxies
+		if (managedTypesByClass.containsKey(javaType)) {
+			return null;
+		}
+		
+		return proxyAccessors.computeIfAbsent(javaType, MetamodelIndex::findProxyAccessor).orElse(null);
+	}
+
+	//only Hibernate's proxies need an accessor, anything else is left as it is, and its identifier read through the PersistenceUnitUtil
+	private static Optional<ProxyAccessor> findProxyAccessor(Class<?> javaType) {
+		
+		try {
+			Class<?> proxyType = Class.forName("org.hibernate.proxy.HibernateProxy", false, javaType.getClassLoader());
+			
+			if (!proxyType.isAssignableFrom(javaType)) {
+				return Optional.empty();
+			}
+			
+			Class<?> initializerType = Class.forName("org.hibernate.proxy.LazyInitializer", false, javaType.getClassLoader());
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			MethodHandle getInitializer = lookup.findVirtual(proxyType, "getHibernateLazyInitializer", MethodType.methodType(initializerType));
+			MethodHandle getImplementation = lookup.findVirtual(initializerType, "getImplementation", MethodType.methodType(Object.class));
+			MethodHandle getIdentifier = lookup.findVirtual(initializerType, "getIdentifier", MethodType.methodType(Serializable.class));
+			
+			return Optional.of(new ProxyAccessor(
+					MethodHandles.filterReturnValue(getInitializer, getImplementation).asType(ACCESSOR_TYPE), 
+					MethodHandles.filterReturnValue(getInitializer, getIdentifier).asType(ACCESSOR_TYPE)));
+		} catch (ClassNotFoundException e) {
+			//This just means that we're not using hibernate
+			return Optional.empty();
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			log.warn("Unable to process the proxies of " + javaType.getName(), e);
+			return Optional.empty();
+		}
+	}
+
+	private static Object invoke(MethodHandle accessor, Object target) {
+		try {
+			return (Object) accessor.invokeExact(target);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class ProxyAccessor {
+
+		private final MethodHandle implementation;
+
+		private final MethodHandle identifier;
+
+		private ProxyAccessor(MethodHandle implementation, MethodHandle identifier) {
+			this.implementation = implementation;
+			this.identifier = identifier;
+		}
+	}
+
+	/**
+	 * An attribute, along with what the mapping annotations say about its relationship.
+	 */
+	public static final class IndexedAttribute {
+
+		private final Attribute<?, ?> attribute;
+
+		private final String mappedBy;
+
+		private final boolean collection;
+
+		private final MethodHandle getter;
+
+		private IndexedAttribute(Attribute<?, ?> attribute) {
+			this.attribute = attribute;
+			this.mappedBy = getMappedBy(attribute.getJavaMember());
+			this.collection = Collection.class.isAssignableFrom(attribute.getJavaType());
+			this.getter = getGetter(attribute.getJavaMember());
+		}
+
+		private static MethodHandle getGetter(Member member) {
+			
+			try {
+				if (member instanceof java.lang.reflect.Field) {
+					java.lang.reflect.Field field = (java.lang.reflect.Field) member;
+					field.setAccessible(true);
+					return MethodHandles.lookup().unreflectGetter(field).asType(ACCESSOR_TYPE);
+				} else if (member instanceof Method) {
+					Method method = (Method) member;
+					method.setAccessible(true);
+					return MethodHandles.lookup().unreflect(method).asType(ACCESSOR_TYPE);
+				}
+			} catch (IllegalAccessException | RuntimeException e) {
+				log.warn("Unable to access " + member.getDeclaringClass().getName() + "." + member.getName(), e);
+			}
+			
+			return null;
+		}
+
+		private static String getMappedBy(Member member) {
+			String mappedBy = null;
+
+			if (member instanceof AnnotatedElement) {
+				AnnotatedElement annotatedElement = (AnnotatedElement) member;
+				OneToOne oneToOne = annotatedElement.getAnnotation(OneToOne.class);
+				OneToMany oneToMany = annotatedElement.getAnnotation(OneToMany.class);
+				ManyToMany manyToMany = annotatedElement.getAnnotation(ManyToMany.class);
+
+				if (oneToOne != null) {
+					mappedBy = oneToOne.mappedBy();
+				} else if (oneToMany != null) {
+					mappedBy = oneToMany.mappedBy();
+				} else if (manyToMany != null) {
+					mappedBy = manyToMany.mappedBy();
+				}
+			}
+
+			return mappedBy != null && !mappedBy.trim().isEmpty() ? mappedBy.trim() : null;
+		}
+
+		public Attribute<?, ?> getAttribute() {
+			return attribute;
+		}
+
+		/**
+		 * The kind of relationship (or BASIC, EMBEDDED and ELEMENT_COLLECTION for the other attributes)
+		 */
+		public Attribute.PersistentAttributeType getPersistentAttributeType() {
+			return attribute.getPersistentAttributeType();
+		}
+
+		public Member getJavaMember() {
+			return attribute.getJavaMember();
+		}
+
+		/**
+		 * Reads the value directly from the entity (which must not be a proxy, see {@link MetamodelIndex#unproxy}), so
+		 * for lazy associations this is the provider's uninitialized proxy.
+		 *
+		 * @return the value, or null when the attribute can't be read
+		 */
+		public Object getValue(Object entity) {
+			return getter != null ? invoke(getter, entity) : null;
+		}
+
+		/**
+		 * Whether {@link #getValue} can read the attribute (its member couldn't be made accessible otherwise)
+		 */
+		public boolean isReadable() {
+			return getter != null;
+		}
+
+		/**
+		 * @return the attribute of the other side that owns the association, or null if this side owns it
+		 */
+		public String getMappedBy() {
+			return mappedBy;
+		}
+
+		public boolean isOwningSide() {
+			return mappedBy == null;
+		}
+
+		public boolean isAssociation() {
+			return attribute.isAssociation();
+		}
+
+		/**
+		 * Whether the attribute holds a Collection (rather than a single value, or a Map)
+		 */
+		public boolean isCollection() {
+			return collection;
+		}
+	}
+}
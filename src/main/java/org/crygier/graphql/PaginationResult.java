@@ -1,5 +1,7 @@
 package org.crygier.graphql;
 
+import java.util.List;
+
 /**
  *
  * @author chris
@@ -10,6 +12,8 @@ public class PaginationResult {
 	
 	private Long totalPages;
 	
+	private Long estimatedTotalElements;
+	
 	private Integer pageSize;
 	
 	private Integer page;
@@ -18,6 +22,12 @@ public class PaginationResult {
 	
 	private String fieldName;
 	
+	private List<?> content;
+	
+	private String endCursor;
+	
+	private Boolean hasNextPage;
+	
 	public PaginationResult(Long totalElements, Long totalPages, Integer pageSize, Integer page, Object parent, String fieldName) {
 		this.totalElements = totalElements;
 		this.totalPages = totalPages;
@@ -43,6 +53,14 @@ public class PaginationResult {
 		this.totalPages = totalPages;
 	}
 
+	public Long getEstimatedTotalElements() {
+		return estimatedTotalElements;
+	}
+
+	public void setEstimatedTotalElements(Long estimatedTotalElements) {
+		this.estimatedTotalElements = estimatedTotalElements;
+	}
+
 	public Integer getPageSize() {
 		return pageSize;
 	}
@@ -74,4 +92,32 @@ public class PaginationResult {
 	public void setFieldName(String fieldName) {
 		this.fieldName = fieldName;
 	}
+
+	/**
+	 * The entities of the page, when they were already loaded by the Connection (as they are for keyset pagination)
+	 * rather than by the content field
+	 */
+	public List<?> getContent() {
+		return content;
+	}
+
+	public void setContent(List<?> content) {
+		this.content = content;
+	}
+
+	public String getEndCursor() {
+		return endCursor;
+	}
+
+	public void setEndCursor(String endCursor) {
+		this.endCursor = endCursor;
+	}
+
+	public Boolean getHasNextPage() {
+		return hasNextPage;
+	}
+
+	public void setHasNextPage(Boolean hasNextPage) {
+		this.hasNextPage = hasNextPage;
+	}
 }
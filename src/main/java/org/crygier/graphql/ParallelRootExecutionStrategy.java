@@ -0,0 +1,118 @@
+package org.crygier.graphql;
+
+import graphql.ExecutionResult;
+import graphql.execution.Async;
+import graphql.execution.AsyncExecutionStrategy;
+import graphql.execution.ExecutionContext;
+import graphql.execution.ExecutionPath;
+import graphql.execution.ExecutionStrategyParameters;
+import graphql.execution.NonNullableFieldWasNullException;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionStrategyParameters;
+import graphql.language.Field;
+import graphql.schema.GraphQLFieldDefinition;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.FlushModeType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Resolves the first root field on the calling thread, and every other one on the root field executor of the
+ * {@link JpaExecutionContext}, on an EntityManager of its own that is closed once the field is resolved.
+ */
+public class ParallelRootExecutionStrategy extends AsyncExecutionStrategy {
+
+	private final EntityManagerFactory entityManagerFactory;
+
+	public ParallelRootExecutionStrategy(EntityManagerFactory entityManagerFactory) {
+		this.entityManagerFactory = entityManagerFactory;
+	}
+
+	@Override
+	public CompletableFuture<ExecutionResult> execute(ExecutionContext executionContext, ExecutionStrategyParameters parameters) throws NonNullableFieldWasNullException {
+
+		JpaExecutionContext context = executionContext.getContext() instanceof JpaExecutionContext ? (JpaExecutionContext) executionContext.getContext() : null;
+
+		if (context == null || context.getRootFieldExecutor() == null || !ExecutionPath.rootPath().equals(parameters.path())) {
+			return super.execute(executionContext, parameters);
+		}
+
+		InstrumentationContext<CompletableFuture<ExecutionResult>> instrumentationContext =
+				executionContext.getInstrumentation().beginExecutionStrategy(new InstrumentationExecutionStrategyParameters(executionContext));
+
+		List<String> fieldNames = new ArrayList<>(parameters.fields().keySet());
+		List<CompletableFuture<ExecutionResult>> futures = new ArrayList<>(fieldNames.size());
+		List<Runnable> callingThreadFields = new ArrayList<>();
+		boolean requestEntityManagerUsed = false;
+
+		for (String fieldName : fieldNames) {
+			List<Field> currentField = parameters.fields().get(fieldName);
+			ExecutionPath fieldPath = parameters.path().segment(fieldName);
+			ExecutionStrategyParameters fieldParameters = parameters.transform(builder -> builder.field(currentField).path(fieldPath));
+
+			boolean jpaField = isJpaField(executionContext, parameters, currentField.get(0));
+
+			if (jpaField && requestEntityManagerUsed) {
+				futures.add(resolveOnEntityManager(executionContext, fieldParameters, fieldName, context));
+			} else {
+				//resolved on the calling thread, once the other fields have been handed to the executor
+				CompletableFuture<ExecutionResult> future = new CompletableFuture<>();
+				callingThreadFields.add(() -> resolveField(executionContext, fieldParameters).whenComplete((result, e) -> complete(future, result, e)));
+				futures.add(future);
+				requestEntityManagerUsed |= jpaField;
+			}
+		}
+
+		callingThreadFields.forEach(Runnable::run);
+
+		CompletableFuture<ExecutionResult> overallResult = new CompletableFuture<>();
+		Async.each(futures).whenComplete(handleResults(executionContext, fieldNames, overallResult));
+
+		instrumentationContext.onEnd(overallResult, null);
+		return overallResult;
+	}
+
+	private CompletableFuture<ExecutionResult> resolveOnEntityManager(ExecutionContext executionContext, ExecutionStrategyParameters parameters,
+			String fieldName, JpaExecutionContext context) {
+
+		return CompletableFuture.supplyAsync(() -> {
+			EntityManager entityManager = entityManagerFactory.createEntityManager();
+			CompletableFuture<ExecutionResult> result;
+
+			try {
+				//nothing is written, so there is never anything to flush
+				entityManager.setFlushMode(FlushModeType.COMMIT);
+				context.setRootFieldEntityManager(fieldName, entityManager);
+				result = resolveField(executionContext, parameters);
+			} catch (RuntimeException | Error e) {
+				close(context, fieldName, entityManager);
+				throw e;
+			}
+
+			return result.whenComplete((value, e) -> close(context, fieldName, entityManager));
+		}, context.getRootFieldExecutor()).thenCompose(Function.identity());
+	}
+
+	private boolean isJpaField(ExecutionContext executionContext, ExecutionStrategyParameters parameters, Field field) {
+		GraphQLFieldDefinition fieldDefinition = getFieldDef(executionContext, parameters, field);
+		return fieldDefinition != null && fieldDefinition.getDataFetcher() instanceof JpaDataFetcher;
+	}
+
+	private void close(JpaExecutionContext context, String fieldName, EntityManager entityManager) {
+		context.setRootFieldEntityManager(fieldName, null);
+		entityManager.close();
+	}
+
+	private static void complete(CompletableFuture<ExecutionResult> future, ExecutionResult result, Throwable e) {
+		if (e != null) {
+			future.completeExceptionally(e);
+		} else {
+			future.complete(result);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package org.crygier.graphql;
+
+import graphql.ErrorType;
+import graphql.GraphQLError;
+import graphql.language.SourceLocation;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Returned instead of executing when a persisted query can't be resolved.  The messages match the ones Apollo clients
+ * look for, so a client that receives PersistedQueryNotFound retries with the full query text.
+ */
+public class PersistedQueryError implements GraphQLError {
+
+	public static final String PERSISTED_QUERY_NOT_FOUND = "PersistedQueryNotFound";
+
+	public static final String HASH_MISMATCH = "provided sha does not match query";
+
+	private final String message;
+
+	public PersistedQueryError(String message) {
+		this.message = message;
+	}
+
+	@Override
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public List<SourceLocation> getLocations() {
+		return null;
+	}
+
+	@Override
+	public ErrorType getErrorType() {
+		return ErrorType.ValidationError;
+	}
+
+	@Override
+	public Map<String, Object> getExtensions() {
+		return PERSISTED_QUERY_NOT_FOUND.equals(message) ? Collections.singletonMap("code", "PERSISTED_QUERY_NOT_FOUND") : null;
+	}
+
+	@Override
+	public String toString() {
+		return "PersistedQueryError{message='" + message + "'}";
+	}
+}
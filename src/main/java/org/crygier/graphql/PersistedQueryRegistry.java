@@ -0,0 +1,342 @@
+package org.crygier.graphql;
+
+import graphql.GraphQLError;
+import graphql.InvalidSyntaxError;
+import graphql.execution.ValuesResolver;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import graphql.language.Definition;
+import graphql.language.Document;
+import graphql.language.Field;
+import graphql.language.ListType;
+import graphql.language.NonNullType;
+import graphql.language.OperationDefinition;
+import graphql.language.Type;
+import graphql.language.VariableDefinition;
+import graphql.parser.Parser;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.DataFetchingEnvironmentBuilder;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLType;
+import graphql.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Queries that clients execute by their SHA-256 hash (Apollo's automatic persisted queries), parsed, validated and
+ * planned once when registered, and never evicted.
+ */
+public class PersistedQueryRegistry implements PreparsedDocumentProvider {
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+	private static final Logger log = LoggerFactory.getLogger(PersistedQueryRegistry.class);
+
+	private final GraphQLSchema schema;
+
+	private final PreparsedDocumentProvider documentProvider;
+
+	private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+	//the context the plans are prepared in, so they match the plans of the executions
+	private Supplier<?> contextSupplier;
+
+	//the query text of every registered hash
+	private final Map<String, String> queries = new ConcurrentHashMap<>();
+
+	//the compiled document of every registered query text
+	private final Map<String, PreparsedDocumentEntry> documents = new ConcurrentHashMap<>();
+
+	public PersistedQueryRegistry(GraphQLSchema schema, PreparsedDocumentProvider documentProvider) {
+		this.schema = schema;
+		this.documentProvider = documentProvider;
+	}
+
+	@Override
+	public PreparsedDocumentEntry get(String query, Function<String, PreparsedDocumentEntry> computeFunction) {
+		PreparsedDocumentEntry entry = documents.get(query);
+		return entry != null ? entry : documentProvider.get(query, computeFunction);
+	}
+
+	/**
+	 * The parsed and validated document of the query, from the registered queries or the document cache, which it's
+	 * added to (if it's not there) for the query's execution
+	 */
+	public PreparsedDocumentEntry getDocument(String query) {
+		return get(query, this::parseAndValidate);
+	}
+
+	public Supplier<?> getContextSupplier() {
+		return contextSupplier;
+	}
+
+	/**
+	 * Supplies the execution context the plans of registered queries are prepared with, as the executor's options
+	 * (e.g. fetch joins) change which plans the executions use.
+	 */
+	public void setContextSupplier(Supplier<?> contextSupplier) {
+		this.contextSupplier = contextSupplier;
+	}
+
+	/**
+	 * Compiles and registers the query.
+	 *
+	 * @return the hash that executes the query
+	 * @throws IllegalArgumentException if the query isn't valid against the schema
+	 * @throws IllegalStateException if the maximum number of queries is already registered
+	 */
+	public String register(String query) {
+		String hash = hash(query);
+
+		if (queries.containsKey(hash)) {
+			return hash;
+		}
+
+		if (queries.size() >= maximumSize) {
+			throw new IllegalStateException("Cannot register more than " + maximumSize + " persisted queries");
+		}
+
+		PreparsedDocumentEntry entry = compile(query);
+
+		if (entry.hasErrors()) {
+			throw new IllegalArgumentException("Invalid persisted query: " + entry.getErrors().stream().map(GraphQLError::getMessage).collect(Collectors.joining(", ")));
+		}
+
+		documents.put(query, entry);
+		queries.put(hash, query);
+
+		return hash;
+	}
+
+	/**
+	 * @return the registered query with the given hash, or null if there is none
+	 */
+	public String getQuery(String hash) {
+		return queries.get(hash);
+	}
+
+	public boolean contains(String hash) {
+		return queries.containsKey(hash);
+	}
+
+	public int size() {
+		return queries.size();
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Limits the number of queries that can be registered, which keeps clients from filling the registry when queries
+	 * are registered automatically.
+	 */
+	public void setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Registers every query in the file, as written by {@link #save(Path)}: one query per line, with backslashes, line
+	 * feeds and carriage returns escaped.
+	 */
+	public void load(Path file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					register(unescape(line));
+				}
+			}
+		}
+	}
+
+	public void save(Path file) throws IOException {
+		List<String> lines = new ArrayList<>(queries.values());
+		Collections.sort(lines);
+
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			for (String query : lines) {
+				writer.write(escape(query));
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * The lowercase, hexadecimal SHA-256 hash of the query's UTF-8 bytes, as sent by Apollo clients.
+	 */
+	public static String hash(String query) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hash = new StringBuilder(digest.length * 2);
+
+			for (byte b : digest) {
+				hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+
+			return hash.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	private PreparsedDocumentEntry compile(String query) {
+		PreparsedDocumentEntry entry = parseAndValidate(query);
+
+		if (entry.hasErrors()) {
+			return entry;
+		}
+
+		for (Definition definition : entry.getDocument().getDefinitions()) {
+			if (definition instanceof OperationDefinition && ((OperationDefinition) definition).getOperation() == OperationDefinition.Operation.QUERY) {
+				prepareOperation((OperationDefinition) definition);
+			}
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Parses and validates the query the way graphql-java does, so that the entry can be cached for its executions
+	 */
+	private PreparsedDocumentEntry parseAndValidate(String query) {
+		Document document;
+
+		try {
+			document = new Parser().parseDocument(query);
+		} catch (Exception e) {
+			return new PreparsedDocumentEntry(InvalidSyntaxError.toInvalidSyntaxError(e));
+		}
+
+		List<? extends GraphQLError> errors = new Validator().validateDocument(schema, document);
+
+		if (!errors.isEmpty()) {
+			return new PreparsedDocumentEntry(errors);
+		}
+
+		return new PreparsedDocumentEntry(document);
+	}
+
+	/**
+	 * Builds the plans of the root fields (and the content of root connections), which are the plans that are cached.
+	 * Fields selected through fragments are planned on their first execution instead.
+	 */
+	private void prepareOperation(OperationDefinition operation) {
+		Map<String, Object> variables = getSampleVariables(operation);
+		GraphQLObjectType queryType = schema.getQueryType();
+
+		operation.getSelectionSet().getSelections().stream().filter(it -> it instanceof Field).map(it -> (Field) it).forEach(field -> {
+			GraphQLFieldDefinition fieldDefinition = queryType.getFieldDefinition(field.getName());
+
+			if (fieldDefinition == null) {
+				return;
+			}
+
+			prepareField(fieldDefinition, queryType, field, null, variables);
+
+			if (fieldDefinition.getType() instanceof GraphQLObjectType && field.getSelectionSet() != null) {
+				GraphQLObjectType connectionType = (GraphQLObjectType) fieldDefinition.getType();
+				GraphQLFieldDefinition contentDefinition = connectionType.getFieldDefinition("content");
+
+				field.getSelectionSet().getSelections().stream()
+						.filter(it -> it instanceof Field && "content".equals(((Field) it).getName()))
+						.findFirst()
+						.ifPresent(content -> {
+							if (contentDefinition != null) {
+								PaginationResult source = new PaginationResult(null, null, null, null, null, field.getName());
+								prepareField(contentDefinition, connectionType, (Field) content, source, variables);
+							}
+						});
+			}
+		});
+	}
+
+	private void prepareField(GraphQLFieldDefinition fieldDefinition, GraphQLType parentType, Field field, Object source, Map<String, Object> variables) {
+		DataFetcher dataFetcher = fieldDefinition.getDataFetcher();
+
+		if (!(dataFetcher instanceof JpaDataFetcher)) {
+			return;
+		}
+
+		DataFetchingEnvironment environment = DataFetchingEnvironmentBuilder.newDataFetchingEnvironment()
+				.source(source)
+				.arguments(new ValuesResolver().getArgumentValues(fieldDefinition.getArguments(), field.getArguments(), variables))
+				.fields(Collections.singletonList(field))
+				.fieldDefinition(fieldDefinition)
+				.fieldType(fieldDefinition.getType())
+				.parentType(parentType)
+				.graphQLSchema(schema)
+				.context(contextSupplier != null ? contextSupplier.get() : null)
+				.build();
+
+		try {
+			((JpaDataFetcher) dataFetcher).prepare(environment);
+		} catch (RuntimeException e) {
+			//the plan is simply built by the first execution instead
+			log.warn("Unable to prepare the plan of persisted field " + field.getName(), e);
+		}
+	}
+
+	/**
+	 * Stand-in values for the operation's variables.  The plans only depend on whether a value is a list, so list
+	 * variables are empty lists, and all others are null.
+	 */
+	private Map<String, Object> getSampleVariables(OperationDefinition operation) {
+		Map<String, Object> variables = new HashMap<>();
+
+		for (VariableDefinition variable : operation.getVariableDefinitions()) {
+			Type type = variable.getType();
+
+			if (type instanceof NonNullType) {
+				type = ((NonNullType) type).getType();
+			}
+
+			variables.put(variable.getName(), type instanceof ListType ? Collections.emptyList() : null);
+		}
+
+		return variables;
+	}
+
+	private static String escape(String query) {
+		return query.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String line) {
+		StringBuilder query = new StringBuilder(line.length());
+
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+
+			if (c == '\\' && i + 1 < line.length()) {
+				char next = line.charAt(++i);
+				query.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			} else {
+				query.append(c);
+			}
+		}
+
+		return query.toString();
+	}
+}
@@ -0,0 +1,133 @@
+package org.crygier.graphql;
+
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of parsed and validated documents, keyed by the query text, so that graphql-java only parses and
+ * validates each distinct query once.  Documents are shared between executions, so they must not be modified.
+ */
+public class PreparsedDocumentCache implements PreparsedDocumentProvider {
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 512;
+
+	public enum EvictionPolicy {
+		/** Evicts the document that was used the longest time ago */
+		LEAST_RECENTLY_USED,
+		/** Evicts the document that was parsed the longest time ago */
+		FIRST_IN_FIRST_OUT
+	}
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private int maximumSize;
+
+	private EvictionPolicy evictionPolicy;
+
+	private Map<String, PreparsedDocumentEntry> documents;
+
+	public PreparsedDocumentCache() {
+		this(DEFAULT_MAXIMUM_SIZE, EvictionPolicy.LEAST_RECENTLY_USED);
+	}
+
+	public PreparsedDocumentCache(int maximumSize, EvictionPolicy evictionPolicy) {
+		this.maximumSize = maximumSize;
+		this.evictionPolicy = evictionPolicy;
+		this.documents = createDocuments(evictionPolicy);
+	}
+
+	@Override
+	public PreparsedDocumentEntry get(String query, Function<String, PreparsedDocumentEntry> computeFunction) {
+		PreparsedDocumentEntry entry;
+
+		synchronized (this) {
+			entry = documents.get(query);
+		}
+
+		if (entry != null) {
+			hitCount.incrementAndGet();
+			return entry;
+		}
+
+		missCount.incrementAndGet();
+
+		//parsed outside of the lock, a query parsed twice concurrently simply replaces the first entry
+		entry = computeFunction.apply(query);
+
+		synchronized (this) {
+			documents.put(query, entry);
+		}
+
+		return entry;
+	}
+
+	public synchronized int size() {
+		return documents.size();
+	}
+
+	public synchronized void clear() {
+		documents.clear();
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Changes the number of documents retained, evicting documents (according to the eviction policy) if there are now
+	 * too many.
+	 */
+	public synchronized void setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+
+		while (documents.size() > maximumSize) {
+			documents.remove(documents.keySet().iterator().next());
+		}
+	}
+
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	public synchronized void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+		Map<String, PreparsedDocumentEntry> previous = documents;
+
+		this.evictionPolicy = evictionPolicy;
+		this.documents = createDocuments(evictionPolicy);
+		this.documents.putAll(previous);
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * The fraction of requests answered from the cache, or 0 if there haven't been any requests
+	 */
+	public double getHitRatio() {
+		long hits = hitCount.get();
+		long requests = hits + missCount.get();
+
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	private Map<String, PreparsedDocumentEntry> createDocuments(EvictionPolicy evictionPolicy) {
+		return new LinkedHashMap<String, PreparsedDocumentEntry>(16, 0.75f, evictionPolicy == EvictionPolicy.LEAST_RECENTLY_USED) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparsedDocumentEntry> eldest) {
+				return size() > maximumSize;
+			}
+		};
+	}
+}
@@ -0,0 +1,145 @@
+package org.crygier.graphql;
+
+import graphql.ExecutionResult;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Shares one execution (and its result, which must not be modified) between identical queries of the same security
+ * context, whether in flight or within the window after the execution.
+ */
+public class QueryCoalescer {
+
+	private final long windowNanos;
+
+	private final Supplier<?> securityContext;
+
+	private final Map<List<Object>, Flight> flights = new ConcurrentHashMap<>();
+
+	private final AtomicLong executionCount = new AtomicLong();
+
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * @param window how long a result is shared after its execution completed, 0 to only share executions in flight
+	 * @param securityContext the security context of the current request (e.g. the user and their roles), whose equals
+	 * tells apart contexts that may see different data
+	 */
+	public QueryCoalescer(long window, TimeUnit unit, Supplier<?> securityContext) {
+		if (window < 0) {
+			throw new IllegalArgumentException("The coalescing window can't be negative, not " + window);
+		}
+
+		this.windowNanos = unit.toNanos(window);
+		this.securityContext = Objects.requireNonNull(securityContext, "A security context supplier is required");
+	}
+
+	/**
+	 * Executes the query, unless an identical query is being executed (or was executed within the window), in which case
+	 * its result is returned
+	 */
+	public ExecutionResult execute(String query, Map<String, Object> variables, Supplier<ExecutionResult> execution) {
+		List<Object> key = Arrays.asList(securityContext.get(), query, variables);
+		Flight flight = new Flight();
+
+		while (true) {
+			Flight existing = flights.putIfAbsent(key, flight);
+
+			if (existing == null) {
+				break;
+			} else if (existing.isExpired(System.nanoTime())) {
+				flights.remove(key, existing);
+			} else {
+				coalescedCount.incrementAndGet();
+				return existing.join();
+			}
+		}
+
+		executionCount.incrementAndGet();
+
+		try {
+			ExecutionResult result = execution.get();
+			flight.complete(result);
+
+			//results with errors (which may be transient) are only shared with the requests that were already waiting
+			if (windowNanos == 0 || !result.getErrors().isEmpty()) {
+				flights.remove(key, flight);
+			}
+
+			return result;
+		} catch (RuntimeException | Error e) {
+			flights.remove(key, flight);
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			removeExpired();
+		}
+	}
+
+	private void removeExpired() {
+		long now = System.nanoTime();
+		flights.values().removeIf(flight -> flight.isExpired(now));
+	}
+
+	/**
+	 * The number of queries that were executed
+	 */
+	public long getExecutionCount() {
+		return executionCount.get();
+	}
+
+	/**
+	 * The number of requests that were given the result of another request's execution
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	public long getWindow(TimeUnit unit) {
+		return unit.convert(windowNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private class Flight {
+
+		private final CompletableFuture<ExecutionResult> result = new CompletableFuture<>();
+
+		private volatile long completedAt;
+
+		void complete(ExecutionResult executionResult) {
+			completedAt = System.nanoTime();
+			result.complete(executionResult);
+		}
+
+		void completeExceptionally(Throwable failure) {
+			completedAt = System.nanoTime();
+			result.completeExceptionally(failure);
+		}
+
+		boolean isExpired(long now) {
+			return result.isDone() && now - completedAt > windowNanos;
+		}
+
+		ExecutionResult join() {
+			try {
+				return result.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				} else if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package org.crygier.graphql;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of queries run at the same time across the requests of a {@link GraphQLExecutor}, holding a permit
+ * only while a query runs.
+ */
+public class QueryLimiter {
+
+	private final int maxConcurrentQueries;
+
+	private final Semaphore permits;
+
+	private final AtomicInteger activeQueries = new AtomicInteger();
+
+	private final AtomicInteger peakActiveQueries = new AtomicInteger();
+
+	public QueryLimiter(int maxConcurrentQueries) {
+		if (maxConcurrentQueries < 1) {
+			throw new IllegalArgumentException("At least one query has to be allowed at a time, not " + maxConcurrentQueries);
+		}
+
+		this.maxConcurrentQueries = maxConcurrentQueries;
+		this.permits = new Semaphore(maxConcurrentQueries, true);
+	}
+
+	/**
+	 * Runs the query once a permit is available, in the order the queries started waiting
+	 */
+	public <T> T execute(Supplier<T> query) {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting to query the database", e);
+		}
+
+		try {
+			peakActiveQueries.accumulateAndGet(activeQueries.incrementAndGet(), Math::max);
+			return query.get();
+		} finally {
+			activeQueries.decrementAndGet();
+			permits.release();
+		}
+	}
+
+	public int getMaxConcurrentQueries() {
+		return maxConcurrentQueries;
+	}
+
+	public int getActiveQueries() {
+		return activeQueries.get();
+	}
+
+	/**
+	 * The most queries that have run at the same time
+	 */
+	public int getPeakActiveQueries() {
+		return peakActiveQueries.get();
+	}
+
+	/**
+	 * An estimate of the number of queries waiting for a permit
+	 */
+	public int getWaitingQueries() {
+		return permits.getQueueLength();
+	}
+}
@@ -0,0 +1,60 @@
+package org.crygier.graphql;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The results of the queries of a single request, keyed by plan and bound values, so identical queries only run once.
+ * The results belong to the request's persistence context, so a memo must not outlive the request.
+ */
+public class QueryMemo {
+
+	private final Map<List<Object>, Object> results = new ConcurrentHashMap<>();
+
+	private final QueryMemoStatistics statistics = new QueryMemoStatistics();
+
+	private final QueryMemoStatistics totals;
+
+	public QueryMemo() {
+		this(null);
+	}
+
+	/**
+	 * @param totals the statistics shared by the requests, which are counted in as well
+	 */
+	public QueryMemo(QueryMemoStatistics totals) {
+		this.totals = totals;
+	}
+
+	/**
+	 * @return the result of the query with the given key, running the query if it hasn't been run yet by the request
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(List<Object> key, Supplier<T> query) {
+		T result = (T) results.get(key);
+		boolean duplicate = result != null;
+
+		if (!duplicate) {
+			//the key holds the request's EntityManager, which is only used by one thread at a time
+			result = query.get();
+			results.put(key, result);
+		}
+
+		statistics.record(duplicate);
+
+		if (totals != null) {
+			totals.record(duplicate);
+		}
+
+		return result;
+	}
+
+	/**
+	 * The queries of this request
+	 */
+	public QueryMemoStatistics getStatistics() {
+		return statistics;
+	}
+}
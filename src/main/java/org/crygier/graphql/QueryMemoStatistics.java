@@ -0,0 +1,37 @@
+package org.crygier.graphql;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the queries run through a {@link QueryMemo}: those that went to the database, and the duplicates that were
+ * answered with the result of an identical query of the same request instead.
+ */
+public class QueryMemoStatistics {
+
+	private final AtomicLong queryCount = new AtomicLong();
+
+	private final AtomicLong duplicateCount = new AtomicLong();
+
+	void record(boolean duplicate) {
+		(duplicate ? duplicateCount : queryCount).incrementAndGet();
+	}
+
+	/**
+	 * The number of distinct queries, which were run against the database
+	 */
+	public long getQueryCount() {
+		return queryCount.get();
+	}
+
+	/**
+	 * The number of queries that were not run, as an identical query had already been run by the same request
+	 */
+	public long getDuplicateCount() {
+		return duplicateCount.get();
+	}
+
+	public void clear() {
+		queryCount.set(0);
+		duplicateCount.set(0);
+	}
+}
@@ -0,0 +1,125 @@
+package org.crygier.graphql;
+
+import graphql.language.Argument;
+
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.ParameterExpression;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Criteria query built for one shape of selection, where every argument value has been replaced by a parameter.  The
+ * values are bound to a query created from the plan on each request, so a plan can be shared between requests (and
+ * threads) through the {@link QueryPlanCache}.  Once built, a plan must not be modified.
+ */
+public class QueryPlan {
+
+	private final CriteriaQuery<?> criteriaQuery;
+
+	private final List<ArgumentBinding> argumentBindings = new ArrayList<>();
+
+	private final Map<String, ParameterExpression<?>> parameters = new HashMap<>();
+
+	//only used while building, the position of each argument of the building request's selection
+	private Map<Argument, Integer> argumentIndexes = new IdentityHashMap<>();
+
+	/**
+	 * @param arguments every argument of the selection being planned, in the order returned by
+	 *                  {@link JpaDataFetcher#getArguments(graphql.language.Field)}
+	 */
+	public QueryPlan(CriteriaQuery<?> criteriaQuery, List<Argument> arguments) {
+		this.criteriaQuery = criteriaQuery;
+
+		for (int i = 0; i < arguments.size(); i++) {
+			argumentIndexes.put(arguments.get(i), i);
+		}
+	}
+
+	public CriteriaQuery<?> getCriteriaQuery() {
+		return criteriaQuery;
+	}
+
+	/**
+	 * Registers a parameter that is bound to the value of the given argument.
+	 *
+	 * @param javaType the type that the argument value(s) have to be converted to
+	 * @param collection whether the parameter takes a collection of values
+	 */
+	public void bindArgument(ParameterExpression<?> parameter, Argument argument, Class<?> javaType, boolean collection) {
+		Integer index = argumentIndexes.get(argument);
+
+		if (index == null) {
+			throw new IllegalStateException("Argument " + argument.getName() + " is not part of the planned selection");
+		}
+
+		argumentBindings.add(new ArgumentBinding(parameter, index, javaType, collection));
+	}
+
+	public List<ArgumentBinding> getArgumentBindings() {
+		return Collections.unmodifiableList(argumentBindings);
+	}
+
+	/**
+	 * Registers a parameter that is bound by the fetcher itself (e.g. the identifiers of a batch).
+	 */
+	public void addParameter(String name, ParameterExpression<?> parameter) {
+		parameters.put(name, parameter);
+	}
+
+	public ParameterExpression<?> getParameter(String name) {
+		return parameters.get(name);
+	}
+
+	/**
+	 * Releases the state only needed while building, after which the plan can be shared.
+	 */
+	public QueryPlan complete() {
+		argumentIndexes = null;
+		return this;
+	}
+
+	public static final class ArgumentBinding {
+
+		private final ParameterExpression<?> parameter;
+
+		private final int index;
+
+		private final ArgumentConverter converter;
+
+		private final boolean collection;
+
+		public ArgumentBinding(ParameterExpression<?> parameter, int index, Class<?> javaType, boolean collection) {
+			this.parameter = parameter;
+			this.index = index;
+			this.converter = ArgumentConverter.forType(javaType);
+			this.collection = collection;
+		}
+
+		public ParameterExpression<?> getParameter() {
+			return parameter;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public Class<?> getJavaType() {
+			return converter.getJavaType();
+		}
+
+		/**
+		 * Converts the argument value(s) to the type of the parameter
+		 */
+		public ArgumentConverter getConverter() {
+			return converter;
+		}
+
+		public boolean isCollection() {
+			return collection;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.crygier.graphql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, least recently used cache of {@link QueryPlan}s, keyed by the entity and the shape of the selection (but
+ * not the argument values) they were built for.
+ */
+public class QueryPlanCache {
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private int maximumSize;
+
+	private final LinkedHashMap<String, QueryPlan> plans = new LinkedHashMap<String, QueryPlan>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+			return size() > maximumSize;
+		}
+	};
+
+	public QueryPlanCache() {
+		this(DEFAULT_MAXIMUM_SIZE);
+	}
+
+	public QueryPlanCache(int maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	public QueryPlan get(String key) {
+		QueryPlan plan;
+
+		synchronized (plans) {
+			plan = plans.get(key);
+		}
+
+		if (plan != null) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+		}
+
+		return plan;
+	}
+
+	public void put(String key, QueryPlan plan) {
+		synchronized (plans) {
+			plans.put(key, plan);
+		}
+	}
+
+	public int size() {
+		synchronized (plans) {
+			return plans.size();
+		}
+	}
+
+	public void clear() {
+		synchronized (plans) {
+			plans.clear();
+		}
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Changes the number of plans retained, evicting the least recently used plans if there are now too many.
+	 */
+	public void setMaximumSize(int maximumSize) {
+		synchronized (plans) {
+			this.maximumSize = maximumSize;
+
+			while (plans.size() > maximumSize) {
+				plans.remove(plans.keySet().iterator().next());
+			}
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+}
@@ -0,0 +1,19 @@
+package org.crygier.graphql;
+
+import graphql.schema.DataFetchingEnvironment;
+
+import javax.persistence.metamodel.EntityType;
+
+/**
+ * Estimates the number of results of a Connection, for clients that only need an approximate total (e.g. from the
+ * database's table statistics) and would rather not pay for a count query.
+ */
+@FunctionalInterface
+public interface RowCountEstimator {
+
+	/**
+	 * @param environment the environment of the Connection field, whose content field holds any filters
+	 * @return the estimated number of results, or null when there's no estimate, in which case the results are counted
+	 */
+	Long estimateRowCount(EntityType<?> entityType, DataFetchingEnvironment environment);
+}
@@ -0,0 +1,90 @@
+package org.crygier.graphql;
+
+/**
+ * The chunk of a streamed root field that a single execution loads (see {@link GraphQLExecutor#executeStreaming}).
+ * Chunks follow each other by the sort key and identifier of the last result of the previous chunk, or by offset when
+ * the root field is ordered in a way that a keyset can't follow.
+ */
+public class StreamWindow {
+
+	private final String rootField;
+
+	private final int size;
+
+	private int offset;
+
+	private KeysetCursor after;
+
+	//what the fetcher of the root field loaded for the current chunk, -1 until it has
+	private int rows = -1;
+
+	private KeysetCursor last;
+
+	public StreamWindow(String rootField, int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Chunks have to hold at least one result, not " + size);
+		}
+
+		this.rootField = rootField;
+		this.size = size;
+	}
+
+	/**
+	 * The key (alias or name) in the result of the streamed root field
+	 */
+	public String getRootField() {
+		return rootField;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * The number of results in the chunks before this one
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * The sort key and identifier of the last result of the previous chunk, or null for the first chunk
+	 */
+	public KeysetCursor getAfter() {
+		return after;
+	}
+
+	/**
+	 * Records what was loaded for the current chunk, called by the fetcher of the root field
+	 *
+	 * @param last the sort key and identifier of the last result
+	 */
+	public void loaded(int rows, KeysetCursor last) {
+		this.rows = rows;
+		this.last = last;
+	}
+
+	/**
+	 * Whether the root field was loaded through this window (it isn't for fields that can't be streamed)
+	 */
+	public boolean isLoaded() {
+		return rows >= 0;
+	}
+
+	/**
+	 * Whether the current chunk is the last, as it isn't full
+	 */
+	public boolean isLast() {
+		return rows < size;
+	}
+
+	/**
+	 * Moves on to the chunk after the one that was loaded
+	 */
+	public void next() {
+		offset += rows;
+		after = last;
+		rows = -1;
+		last = null;
+	}
+}
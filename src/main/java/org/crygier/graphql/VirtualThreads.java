@@ -0,0 +1,49 @@
+package org.crygier.graphql;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to the virtual threads of Java 21 and later, looked up at runtime so that the library itself still runs on
+ * Java 8.
+ */
+public final class VirtualThreads {
+
+	//Executors.newVirtualThreadPerTaskExecutor(), or null before Java 21
+	private static final MethodHandle NEW_EXECUTOR = findNewExecutor();
+
+	private VirtualThreads() {}
+
+	private static MethodHandle findNewExecutor() {
+		try {
+			return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	public static boolean isAvailable() {
+		return NEW_EXECUTOR != null;
+	}
+
+	/**
+	 * @return an executor that starts a new virtual thread for each task
+	 * @throws UnsupportedOperationException when the JVM has no virtual threads
+	 */
+	public static ExecutorService newExecutor() {
+		if (NEW_EXECUTOR == null) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later, this is Java " + System.getProperty("java.version"));
+		}
+
+		try {
+			return (ExecutorService) NEW_EXECUTOR.invokeExact();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
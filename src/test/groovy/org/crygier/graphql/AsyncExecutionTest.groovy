@@ -0,0 +1,125 @@
+package org.crygier.graphql
+
+import spock.lang.IgnoreIf
+import spock.lang.Requires
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class AsyncExecutionTest extends ExecutorSpecification {
+
+    private ExecutorService pool = Executors.newFixedThreadPool(8)
+
+    private ExecutorService rootFieldPool = Executors.newFixedThreadPool(4)
+
+    def cleanup() {
+        pool.shutdown()
+        rootFieldPool.shutdown()
+    }
+
+    def 'Requests are executed on the request executor with the same results'() {
+        given:
+        configure(requestExecutor: pool)
+        def query = '''
+        query humans($name: [String]) {
+            Human(id: [1000, 1001]) {
+                name(orderBy: ASC)
+                friends(name: $name) {
+                    name(orderBy: ASC)
+                    appearsIn
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.executeAsync(query, [name: ['C-3PO']]).get(10, TimeUnit.SECONDS)
+
+        then:
+        result.errors.isEmpty()
+        result.data == executor.execute(query, [name: ['C-3PO']]).data
+        result.data.Human*.name == ['Darth Vader', 'Luke Skywalker']
+        result.data.Human[1].friends*.name == ['C-3PO']
+        result.data.Human[1].friends[0].appearsIn.size() == 4
+    }
+
+    def 'Queries of concurrent requests are limited'() {
+        given:
+        //requests wait on their root fields, so these can't share a bounded pool of platform threads
+        configure(requestExecutor: pool, rootFieldExecutor: rootFieldPool, maxConcurrentQueries: 2)
+        def query = '''
+        {
+            Human {
+                name(orderBy: ASC)
+                friends {
+                    name(orderBy: ASC)
+                }
+            }
+            Droid {
+                name(orderBy: ASC)
+            }
+            HumanConnection(paginationRequest: { page: 1, size: 2 }) {
+                totalElements
+            }
+        }
+        '''
+
+        when:
+        def results = (1..16).collect { executor.executeAsync(query, null) }
+        CompletableFuture.allOf(results as CompletableFuture[]).get(30, TimeUnit.SECONDS)
+
+        then:
+        results*.get().every { it.errors.isEmpty() && it.data.Human.size() == 6 && it.data.Droid*.name == ['C-3PO', 'R2-D2'] }
+        executor.queryLimiter.peakActiveQueries == 2
+        executor.queryLimiter.activeQueries == 0
+    }
+
+    def 'The limiter never runs more queries than it allows'() {
+        given:
+        def limiter = new QueryLimiter(3)
+        def start = new CountDownLatch(1)
+
+        when:
+        def queries = (1..20).collect {
+            CompletableFuture.supplyAsync({
+                start.await()
+                limiter.execute { Thread.sleep(5); limiter.activeQueries }
+            }, pool)
+        }
+        start.countDown()
+
+        then:
+        queries*.get(10, TimeUnit.SECONDS).every { it <= 3 }
+        limiter.peakActiveQueries == 3
+        limiter.activeQueries == 0
+    }
+
+    @Requires({ VirtualThreads.available })
+    def 'Requests are executed on virtual threads'() {
+        given:
+        preserve('requestExecutor', 'rootFieldExecutor', 'countExecutor', 'maxConcurrentQueries')
+        executor.useVirtualThreads(2)
+
+        when:
+        def result = executor.executeAsync('{ Human(id: 1000) { name friends { name(orderBy: ASC) } } Droid { name(orderBy: ASC) } }', null).get(10, TimeUnit.SECONDS)
+
+        then:
+        result.errors.isEmpty()
+        result.data.Human[0].friends*.name == ['C-3PO', 'Han Solo', 'Leia Organa', 'R2-D2']
+        result.data.Droid*.name == ['C-3PO', 'R2-D2']
+    }
+
+    @IgnoreIf({ VirtualThreads.available })
+    def 'Virtual threads are not available before Java 21'() {
+        when:
+        executor.useVirtualThreads(2)
+
+        then:
+        thrown(UnsupportedOperationException)
+        executor.requestExecutor == null
+        executor.queryLimiter == null
+    }
+}
@@ -0,0 +1,190 @@
+package org.crygier.graphql
+
+class BatchFetchingTest extends ExecutorSpecification {
+
+    def setup() {
+        configure(batchFetching: true)
+    }
+
+    def 'ManyToMany is loaded with one query for all parents'() {
+        given:
+        def query = '''
+        {
+            Human {
+                name(orderBy: ASC)
+                friends {
+                    name(orderBy: ASC)
+                }
+            }
+        }
+        '''
+        def expected = [
+                Human: [
+                        [name: 'Darth Maul', friends: []],
+                        [name: 'Darth Vader', friends: [[name: 'Wilhuff Tarkin']]],
+                        [name: 'Han Solo', friends: [[name: 'Leia Organa'], [name: 'Luke Skywalker'], [name: 'R2-D2']]],
+                        [name: 'Leia Organa', friends: [[name: 'C-3PO'], [name: 'Han Solo'], [name: 'Luke Skywalker'], [name: 'R2-D2']]],
+                        [name: 'Luke Skywalker', friends: [[name: 'C-3PO'], [name: 'Han Solo'], [name: 'Leia Organa'], [name: 'R2-D2']]],
+                        [name: 'Wilhuff Tarkin', friends: [[name: 'Darth Vader']]]
+                ]
+        ]
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == expected
+        statistics().queryExecutionCount == 2
+    }
+
+    def 'Each level of nesting is loaded with one query'() {
+        given:
+        def query = '''
+        {
+            Human(id: [1000, 1001]) {
+                name(orderBy: ASC)
+                friends {
+                    name(orderBy: ASC)
+                    friends {
+                        name(orderBy: ASC)
+                    }
+                }
+            }
+        }
+        '''
+        def expected = [
+                Human: [
+                        [name: 'Darth Vader', friends: [[name: 'Wilhuff Tarkin', friends: [[name: 'Darth Vader']]]]],
+                        [name: 'Luke Skywalker', friends: [
+                                [name: 'C-3PO', friends: [[name: 'Han Solo'], [name: 'Leia Organa'], [name: 'Luke Skywalker'], [name: 'R2-D2']]],
+                                [name: 'Han Solo', friends: [[name: 'Leia Organa'], [name: 'Luke Skywalker'], [name: 'R2-D2']]],
+                                [name: 'Leia Organa', friends: [[name: 'C-3PO'], [name: 'Han Solo'], [name: 'Luke Skywalker'], [name: 'R2-D2']]],
+                                [name: 'R2-D2', friends: [[name: 'Han Solo'], [name: 'Leia Organa'], [name: 'Luke Skywalker']]]
+                        ]]
+                ]
+        ]
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == expected
+        statistics().queryExecutionCount == 3
+    }
+
+    def 'OneToMany with a filter is batched'() {
+        given:
+        def query = '''
+        {
+            Droid {
+                name(orderBy: ASC)
+                admirers(name: "Luke Skywalker") {
+                    name
+                }
+            }
+        }
+        '''
+        def expected = [
+                Droid: [
+                        [name: 'C-3PO', admirers: [[name: 'Luke Skywalker']]],
+                        [name: 'R2-D2', admirers: []]
+                ]
+        ]
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == expected
+        statistics().queryExecutionCount == 2
+    }
+
+    def 'ManyToOne is loaded by identifier with one query for all parents'() {
+        given:
+        def query = '''
+        {
+            Human {
+                name(orderBy: ASC)
+                favoriteDroid {
+                    name
+                }
+            }
+        }
+        '''
+        def expected = [
+                Human: [
+                        [name: 'Darth Maul', favoriteDroid: null],
+                        [name: 'Darth Vader', favoriteDroid: [name: 'R2-D2']],
+                        [name: 'Han Solo', favoriteDroid: null],
+                        [name: 'Leia Organa', favoriteDroid: [name: 'C-3PO']],
+                        [name: 'Luke Skywalker', favoriteDroid: [name: 'C-3PO']],
+                        [name: 'Wilhuff Tarkin', favoriteDroid: null]
+                ]
+        ]
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == expected
+        statistics().queryExecutionCount == 2
+    }
+
+    def 'ManyToOne with a filter is loaded by identifier'() {
+        given:
+        def query = '''
+        {
+            Human {
+                name(orderBy: ASC)
+                favoriteDroid(name: "C-3PO") {
+                    name
+                }
+            }
+        }
+        '''
+        def expected = [
+                Human: [
+                        [name: 'Darth Maul', favoriteDroid: null],
+                        [name: 'Darth Vader', favoriteDroid: null],
+                        [name: 'Han Solo', favoriteDroid: null],
+                        [name: 'Leia Organa', favoriteDroid: [name: 'C-3PO']],
+                        [name: 'Luke Skywalker', favoriteDroid: [name: 'C-3PO']],
+                        [name: 'Wilhuff Tarkin', favoriteDroid: null]
+                ]
+        ]
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == expected
+        statistics().queryExecutionCount == 2
+    }
+
+    def 'ManyToOne already in the persistence context is not queried'() {
+        given:
+        def query = '''
+        {
+            Human(id: [1000, 1003]) {
+                name(orderBy: ASC)
+                father {
+                    name
+                }
+            }
+        }
+        '''
+        def expected = [
+                Human: [
+                        [name: 'Leia Organa', father: [name: 'Darth Vader']],
+                        [name: 'Luke Skywalker', father: [name: 'Darth Vader']]
+                ]
+        ]
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == expected
+        statistics().queryExecutionCount == 1
+    }
+}
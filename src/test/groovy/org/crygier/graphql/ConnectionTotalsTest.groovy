@@ -0,0 +1,125 @@
+package org.crygier.graphql
+
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class ConnectionTotalsTest extends ExecutorSpecification {
+
+    def 'hasNextPage is answered without a count query'() {
+        given:
+        def query = { int page -> """
+        {
+            HumanConnection(paginationRequest: { page: ${page}, size: 2 }) {
+                hasNextPage
+                content {
+                    name(orderBy: ASC)
+                }
+            }
+        }
+        """ }
+
+        when:
+        def secondPage = executor.execute(query(2)).data
+        def queryCount = statistics().queryExecutionCount
+        def lastPage = executor.execute(query(3)).data
+
+        then:
+        secondPage == [HumanConnection: [hasNextPage: true, content: [[name: 'Han Solo'], [name: 'Leia Organa']]]]
+        queryCount == 1
+        lastPage == [HumanConnection: [hasNextPage: false, content: [[name: 'Luke Skywalker'], [name: 'Wilhuff Tarkin']]]]
+    }
+
+    def 'Content is returned without totals'() {
+        given:
+        def query = '''
+        {
+            HumanConnection(paginationRequest: { page: 1, size: 1 }) {
+                content {
+                    name(orderBy: DESC)
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [HumanConnection: [content: [[name: 'Wilhuff Tarkin']]]]
+        statistics().queryExecutionCount == 1
+    }
+
+    def 'Estimated totals come from the estimator'() {
+        given:
+        def query = '''
+        {
+            HumanConnection(paginationRequest: { page: 1, size: 2 }) {
+                estimatedTotalElements
+            }
+        }
+        '''
+        configure(rowCountEstimator: { entityType, environment -> entityType.name == 'Human' ? 1000L : null } as RowCountEstimator)
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [HumanConnection: [estimatedTotalElements: 1000]]
+        statistics().queryExecutionCount == 0
+    }
+
+    def 'Estimated totals fall back to counting'() {
+        given:
+        def query = '''
+        {
+            HumanConnection(paginationRequest: { page: 1, size: 2 }) {
+                totalElements
+                estimatedTotalElements
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [HumanConnection: [totalElements: 6, estimatedTotalElements: 6]]
+        statistics().queryExecutionCount == 1
+    }
+
+    def 'Totals are counted concurrently with the page'() {
+        given:
+        def query = '''
+        {
+            HumanConnection(paginationRequest: { page: 2, size: 2 }) {
+                totalPages
+                totalElements
+                content {
+                    name(orderBy: ASC)
+                }
+            }
+        }
+        '''
+        def pool = Executors.newSingleThreadExecutor()
+        def submitted = new AtomicInteger()
+        configure(countExecutor: { Runnable task -> submitted.incrementAndGet(); pool.execute(task) } as Executor)
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [
+                HumanConnection: [
+                        totalPages: 3,
+                        totalElements: 6,
+                        content: [[name: 'Han Solo'], [name: 'Leia Organa']]
+                ]
+        ]
+        submitted.get() == 1
+        statistics().queryExecutionCount == 2
+
+        cleanup:
+        pool.shutdown()
+    }
+}
@@ -0,0 +1,110 @@
+package org.crygier.graphql
+
+class EntityGraphTest extends ExecutorSpecification {
+
+    def setup() {
+        configure(entityGraphs: true)
+    }
+
+    def 'ToOne associations are loaded by the graph'() {
+        given:
+        def query = '''
+        {
+            Human(homePlanet: "Tatooine") {
+                name(orderBy: ASC)
+                favoriteDroid {
+                    name
+                    primaryFunction
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [
+                Human: [
+                        [name: 'Darth Vader', favoriteDroid: [name: 'R2-D2', primaryFunction: 'Astromech']],
+                        [name: 'Luke Skywalker', favoriteDroid: [name: 'C-3PO', primaryFunction: 'Protocol']]
+                ]
+        ]
+        statistics().queryExecutionCount == 1
+    }
+
+    def 'Collections are loaded by the graph without duplicating their parents'() {
+        given:
+        def query = '''
+        {
+            Human(homePlanet: "Tatooine") {
+                name(orderBy: ASC)
+                friends {
+                    name
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result.Human*.name == ['Darth Vader', 'Luke Skywalker']
+        result.Human[0].friends*.name as Set == ['Wilhuff Tarkin'] as Set
+        result.Human[1].friends*.name as Set == ['Han Solo', 'Leia Organa', 'C-3PO', 'R2-D2'] as Set
+        statistics().queryExecutionCount == 1
+    }
+
+    def 'Collections of pages are left to their own fetchers'() {
+        given:
+        def query = '''
+        {
+            HumanConnection(paginationRequest: { page: 1, size: 2 }) {
+                content {
+                    name(orderBy: ASC)
+                    favoriteDroid {
+                        name
+                    }
+                    friends {
+                        name
+                    }
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data.HumanConnection.content
+
+        then:
+        result*.name == ['Darth Maul', 'Darth Vader']
+        result*.favoriteDroid == [null, [name: 'R2-D2']]
+        result[1].friends*.name == ['Wilhuff Tarkin']
+    }
+
+    def 'Filtered associations are joined and queried as before'() {
+        given:
+        def query = '''
+        {
+            Human(id: [1000, 1001]) {
+                name(orderBy: ASC)
+                favoriteDroid(name: "C-3PO") {
+                    name
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [
+                Human: [
+                        [name: 'Darth Vader', favoriteDroid: null],
+                        [name: 'Luke Skywalker', favoriteDroid: [name: 'C-3PO']]
+                ]
+        ]
+    }
+}
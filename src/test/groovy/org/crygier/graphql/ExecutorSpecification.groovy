@@ -0,0 +1,57 @@
+package org.crygier.graphql
+
+import org.hibernate.SessionFactory
+import org.hibernate.stat.Statistics
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import spock.lang.Specification
+
+import javax.persistence.EntityManagerFactory
+
+/**
+ * Specs of the executor shared by the application context.  Settings changed through configure are restored after
+ * each feature, so that no spec depends on the settings left by another.
+ */
+@SpringBootTest(classes = TestApplication)
+abstract class ExecutorSpecification extends Specification {
+
+    @Autowired
+    protected GraphQLExecutor executor
+
+    @Autowired
+    protected EntityManagerFactory entityManagerFactory
+
+    private final Map<String, Object> previousSettings = [:]
+
+    def setup() {
+        statistics().clear()
+    }
+
+    def cleanup() {
+        for (setting in previousSettings) {
+            executor[setting.key] = setting.value
+        }
+    }
+
+    protected void configure(Map<String, Object> settings) {
+        preserve(settings.keySet() as String[])
+        for (setting in settings) {
+            executor[setting.key] = setting.value
+        }
+    }
+
+    /**
+     * Restores the settings after the feature, for features that change them other than through configure
+     */
+    protected void preserve(String... names) {
+        for (name in names) {
+            if (!previousSettings.containsKey(name)) {
+                previousSettings[name] = executor[name]
+            }
+        }
+    }
+
+    protected Statistics statistics() {
+        entityManagerFactory.unwrap(SessionFactory).statistics
+    }
+}
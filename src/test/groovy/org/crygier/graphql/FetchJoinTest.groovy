@@ -0,0 +1,120 @@
+package org.crygier.graphql
+
+class FetchJoinTest extends ExecutorSpecification {
+
+    def setup() {
+        configure(fetchJoins: true)
+    }
+
+    def 'ToOne associations are fetched with their parent'() {
+        given:
+        def query = '''
+        {
+            Human(homePlanet: "Tatooine") {
+                name(orderBy: ASC)
+                favoriteDroid {
+                    name
+                    primaryFunction
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [
+                Human: [
+                        [name: 'Darth Vader', favoriteDroid: [name: 'R2-D2', primaryFunction: 'Astromech']],
+                        [name: 'Luke Skywalker', favoriteDroid: [name: 'C-3PO', primaryFunction: 'Protocol']]
+                ]
+        ]
+        statistics().queryExecutionCount == 1
+    }
+
+    def 'Plans built without fetch joins are not used with them'() {
+        given:
+        def query = '''
+        {
+            HumanConnection(first: 2) {
+                content {
+                    name(orderBy: ASC)
+                    favoriteDroid {
+                        name
+                    }
+                }
+            }
+        }
+        '''
+
+        when:
+        executor.fetchJoins = false
+        def unfetched = executor.execute(query).data
+        executor.fetchJoins = true
+        statistics().clear()
+        def fetched = executor.execute(query).data
+
+        then:
+        fetched == unfetched
+        fetched.HumanConnection.content == [[name: 'Darth Maul', favoriteDroid: null], [name: 'Darth Vader', favoriteDroid: [name: 'R2-D2']]]
+        statistics().queryExecutionCount == 1
+    }
+
+    def 'Count queries of fetched pages are not fetched'() {
+        given:
+        def query = '''
+        {
+            HumanConnection(paginationRequest: { page: 1, size: 2 }) {
+                totalElements
+                content {
+                    name(orderBy: ASC)
+                    favoriteDroid {
+                        name
+                    }
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [
+                HumanConnection: [
+                        totalElements: 6,
+                        content: [
+                                [name: 'Darth Maul', favoriteDroid: null],
+                                [name: 'Darth Vader', favoriteDroid: [name: 'R2-D2']]
+                        ]
+                ]
+        ]
+        statistics().queryExecutionCount == 2
+    }
+
+    def 'Filtered associations are joined and queried as before'() {
+        given:
+        def query = '''
+        {
+            Human(id: [1000, 1001]) {
+                name(orderBy: ASC)
+                favoriteDroid(name: "C-3PO") {
+                    name
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [
+                Human: [
+                        [name: 'Darth Vader', favoriteDroid: null],
+                        [name: 'Luke Skywalker', favoriteDroid: [name: 'C-3PO']]
+                ]
+        ]
+    }
+}
@@ -9,6 +9,8 @@ import org.springframework.web.bind.annotation.RequestMapping
 import org.springframework.web.bind.annotation.RequestMethod
 import org.springframework.web.bind.annotation.RestController
 
+import javax.servlet.http.HttpServletResponse
+
 @RestController
 @CompileStatic
 class GraphQlController {
@@ -26,6 +28,22 @@ class GraphQlController {
         return graphQLExecutor.execute(query.getQuery(), variables);
     }
 
+    @RequestMapping(path = '/graphql/stream', method = RequestMethod.POST)
+    void graphQlStream(@RequestBody final GraphQLInputQuery query, HttpServletResponse response) {
+        Map<String, Object> variables = query.getVariables() ? objectMapper.readValue(query.getVariables(), Map) : null;
+
+        response.setContentType('application/json;charset=UTF-8');
+        graphQLExecutor.executeStreaming(query.getQuery(), variables, response.getWriter());
+    }
+
+    @RequestMapping(path = '/graphql/incremental', method = RequestMethod.POST)
+    void graphQlIncremental(@RequestBody final GraphQLInputQuery query, HttpServletResponse response) {
+        Map<String, Object> variables = query.getVariables() ? objectMapper.readValue(query.getVariables(), Map) : null;
+
+        response.setContentType(GraphQLExecutor.INCREMENTAL_CONTENT_TYPE);
+        graphQLExecutor.executeIncremental(query.getQuery(), variables, response.getWriter());
+    }
+
     public static final class GraphQLInputQuery {
         String query;
         String variables;
@@ -0,0 +1,152 @@
+package org.crygier.graphql
+
+import groovy.json.JsonSlurper
+
+class IncrementalDeliveryTest extends ExecutorSpecification {
+
+    private List<Map<String, Object>> executeIncremental(String query, Map<String, Object> variables = null) {
+        List<Map<String, Object>> parts = []
+        executor.executeIncremental(query, variables, { parts << it })
+        return parts
+    }
+
+    def 'Deferred fields follow the initial result'() {
+        given:
+        def query = '''
+        {
+            Human(id: 1000) {
+                name
+                friendsConnection(paginationRequest: { page: 1, size: 2 }) @defer {
+                    totalElements
+                }
+            }
+        }
+        '''
+
+        when:
+        def parts = executeIncremental(query)
+
+        then:
+        parts.size() == 2
+        parts[0] == [data: [Human: [[name: 'Luke Skywalker']]], hasNext: true]
+        parts[1] == [incremental: [[data: [friendsConnection: [totalElements: 4]], path: ['Human', 0]]], hasNext: false]
+    }
+
+    def 'Deferred fragments are delivered by label'() {
+        given:
+        def query = '''
+        query ($label: String) {
+            Human(id: 1000) {
+                name
+                ... @defer(label: "friends") {
+                    friends {
+                        name(orderBy: ASC)
+                    }
+                }
+                ...planet @defer(label: $label)
+            }
+        }
+
+        fragment planet on Human {
+            homePlanet
+        }
+        '''
+
+        when:
+        def parts = executeIncremental(query, [label: 'planet'])
+
+        then:
+        parts.size() == 2
+        parts[0] == [data: [Human: [[name: 'Luke Skywalker']]], hasNext: true]
+        parts[1].hasNext == false
+        parts[1].incremental as Set == [
+                [data: [friends: [[name: 'C-3PO'], [name: 'Han Solo'], [name: 'Leia Organa'], [name: 'R2-D2']]], path: ['Human', 0], label: 'friends'],
+                [data: [homePlanet: 'Tatooine'], path: ['Human', 0], label: 'planet']
+        ] as Set
+    }
+
+    def 'Fields that are also selected without @defer are not deferred'() {
+        given:
+        def query = '''
+        {
+            Human(id: 1000) {
+                name
+                ... @defer {
+                    name
+                }
+                homePlanet @defer(if: false)
+            }
+        }
+        '''
+
+        when:
+        def parts = executeIncremental(query)
+
+        then:
+        parts == [[data: [Human: [[name: 'Luke Skywalker', homePlanet: 'Tatooine']]], hasNext: false]]
+    }
+
+    def 'Streamed lists deliver their items after the initial count'() {
+        given:
+        configure(batchFetching: true)
+        def query = '''
+        {
+            Human(id: 1000) {
+                friends @stream(initialCount: 2, label: "rest") {
+                    name(orderBy: ASC)
+                }
+            }
+        }
+        '''
+
+        when:
+        def parts = executeIncremental(query)
+
+        then:
+        parts.size() == 3
+        parts[0] == [data: [Human: [[friends: [[name: 'C-3PO'], [name: 'Han Solo']]]]], hasNext: true]
+        parts[1] == [incremental: [[items: [[name: 'Leia Organa']], path: ['Human', 0, 'friends', 2], label: 'rest']], hasNext: true]
+        parts[2] == [incremental: [[items: [[name: 'R2-D2']], path: ['Human', 0, 'friends', 3], label: 'rest']], hasNext: false]
+    }
+
+    def 'Directives are ignored when the query is not executed incrementally'() {
+        given:
+        def query = '''
+        {
+            Human(id: 1000) {
+                name
+                friends @stream(initialCount: 1) {
+                    name(orderBy: ASC)
+                }
+                ... @defer {
+                    homePlanet
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query)
+
+        then:
+        result.errors.isEmpty()
+        result.data == [Human: [[name: 'Luke Skywalker', friends: [[name: 'C-3PO'], [name: 'Han Solo'], [name: 'Leia Organa'], [name: 'R2-D2']], homePlanet: 'Tatooine']]]
+    }
+
+    def 'Parts are written as a multipart response'() {
+        given:
+        def writer = new StringWriter()
+
+        when:
+        executor.executeIncremental('{ Droid(id: 2001) { name ... @defer { primaryFunction } } }', null, writer)
+        def sections = writer.toString().split('\r\n---')
+
+        then:
+        writer.toString().endsWith('\r\n-----\r\n')
+        sections.length == 4
+        sections[1].startsWith('\r\nContent-Type: application/json; charset=utf-8\r\n\r\n')
+        new JsonSlurper().parseText(sections[1].split('\r\n\r\n')[1]) == [data: [Droid: [[name: 'R2-D2']]], hasNext: true]
+        new JsonSlurper().parseText(sections[2].split('\r\n\r\n')[1]).incremental[0].data.primaryFunction != null
+        sections[3] == '--\r\n'
+    }
+}
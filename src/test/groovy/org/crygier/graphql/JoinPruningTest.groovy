@@ -0,0 +1,92 @@
+package org.crygier.graphql
+
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import spock.lang.Specification
+
+@SpringBootTest(classes = TestApplication)
+class JoinPruningTest extends Specification {
+
+    @Autowired
+    private GraphQLExecutor executor
+
+    def 'Totals are not multiplied by the selected collections'() {
+        given:
+        def query = '''
+        {
+            HumanConnection(paginationRequest: { page: 1, size: 2 }) {
+                totalElements
+                totalPages
+                content {
+                    name(orderBy: ASC)
+                    friends {
+                        name
+                        friends {
+                            name
+                        }
+                    }
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data.HumanConnection
+
+        then:
+        result.totalElements == 6
+        result.totalPages == 3
+        result.content*.name == ['Darth Maul', 'Darth Vader']
+        result.content[1].friends == [[name: 'Wilhuff Tarkin', friends: [[name: 'Darth Vader']]]]
+    }
+
+    def 'Inner joins below left joins still filter the results'() {
+        given:
+        def query = '''
+        {
+            HumanConnection {
+                totalElements
+                content {
+                    name(orderBy: ASC)
+                    favoriteDroid {
+                        friends(joinType: INNER, name: "Han Solo") {
+                            name
+                        }
+                    }
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data.HumanConnection
+
+        then:
+        result.totalElements == 3
+        result.content*.name == ['Darth Vader', 'Leia Organa', 'Luke Skywalker']
+    }
+
+    def 'Collections that filter are matched without repeating the results'() {
+        given:
+        def query = '''
+        {
+            HumanConnection(paginationRequest: { page: 1, size: 10 }) {
+                totalElements
+                content {
+                    name(orderBy: ASC)
+                    friends(joinType: INNER) {
+                        name
+                    }
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data.HumanConnection
+
+        then:
+        result.totalElements == 5
+        result.content*.name == ['Darth Vader', 'Han Solo', 'Leia Organa', 'Luke Skywalker', 'Wilhuff Tarkin']
+    }
+}
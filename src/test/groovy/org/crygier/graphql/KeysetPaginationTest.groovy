@@ -0,0 +1,147 @@
+package org.crygier.graphql
+
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import spock.lang.Specification
+
+@SpringBootTest(classes = TestApplication)
+class KeysetPaginationTest extends Specification {
+
+    @Autowired
+    private GraphQLExecutor executor
+
+    private static final String QUERY = '''
+        query humans($first: Int, $after: String) {
+            HumanConnection(first: $first, after: $after) {
+                endCursor
+                hasNextPage
+                content {
+                    name(orderBy: ASC)
+                }
+            }
+        }
+        '''
+
+    def 'Pages follow each other through their cursors'() {
+        when:
+        def firstPage = executor.execute(QUERY, [first: 2]).data.HumanConnection
+        def secondPage = executor.execute(QUERY, [first: 2, after: firstPage.endCursor]).data.HumanConnection
+        def lastPage = executor.execute(QUERY, [first: 2, after: secondPage.endCursor]).data.HumanConnection
+
+        then:
+        firstPage.content == [[name: 'Darth Maul'], [name: 'Darth Vader']]
+        firstPage.hasNextPage
+        secondPage.content == [[name: 'Han Solo'], [name: 'Leia Organa']]
+        secondPage.hasNextPage
+        lastPage.content == [[name: 'Luke Skywalker'], [name: 'Wilhuff Tarkin']]
+        !lastPage.hasNextPage
+    }
+
+    def 'Pages are ordered by the identifier when no field is ordered'() {
+        given:
+        def query = '''
+        query humans($after: String) {
+            HumanConnection(first: 2, after: $after) {
+                hasNextPage
+                endCursor
+                totalElements
+                content {
+                    id
+                }
+            }
+        }
+        '''
+
+        when:
+        def firstPage = executor.execute(query, [:]).data.HumanConnection
+        def secondPage = executor.execute(query, [after: firstPage.endCursor]).data.HumanConnection
+
+        then:
+        firstPage.content == [[id: 1000], [id: 1001]]
+        firstPage.totalElements == 6
+        secondPage.content == [[id: 1002], [id: 1003]]
+    }
+
+    def 'Descending pages and filters are applied together'() {
+        given:
+        def query = '''
+        query humans($after: String) {
+            HumanConnection(first: 1, after: $after) {
+                content(homePlanet: "Tatooine") {
+                    name(orderBy: DESC)
+                }
+                endCursor
+                hasNextPage
+            }
+        }
+        '''
+
+        when:
+        def firstPage = executor.execute(query, [:]).data.HumanConnection
+        def secondPage = executor.execute(query, [after: firstPage.endCursor]).data.HumanConnection
+
+        then:
+        firstPage.content == [[name: 'Luke Skywalker']]
+        firstPage.hasNextPage
+        secondPage.content == [[name: 'Darth Vader']]
+        !secondPage.hasNextPage
+    }
+
+    def 'Results with a null sort key are paged, before the others'() {
+        given:
+        def query = '''
+        query humans($after: String) {
+            HumanConnection(first: 2, after: $after) {
+                endCursor
+                hasNextPage
+                content {
+                    name
+                    homePlanet(orderBy: ORDER)
+                }
+            }
+        }
+        '''.replace('ORDER', order)
+
+        when:
+        def names = []
+        def page = [hasNextPage: true]
+
+        while (page.hasNextPage) {
+            page = executor.execute(query, [after: page.endCursor]).data.HumanConnection
+            names.addAll(page.content*.name)
+        }
+
+        then:
+        names == expected
+
+        where:
+        order  | expected
+        'ASC'  | ['Han Solo', 'Wilhuff Tarkin', 'Darth Maul', 'Leia Organa', 'Luke Skywalker', 'Darth Vader']
+        'DESC' | ['Darth Vader', 'Luke Skywalker', 'Leia Organa', 'Darth Maul', 'Wilhuff Tarkin', 'Han Solo']
+    }
+
+    def 'Cursors keep sort values of any text'() {
+        when:
+        def cursor = new KeysetCursor(value, 1000L).encode('name', String, Long)
+        def decoded = KeysetCursor.decode(cursor, 'name', String, Long)
+
+        then:
+        decoded.sortValue == value
+        decoded.id == 1000L
+
+        where:
+        value << ['Luke\nSkywalker', 'multi\nline\n', '', '5:Luke-', null]
+    }
+
+    def 'Cursors of another ordering are rejected'() {
+        given:
+        def idPage = executor.execute('{ HumanConnection(first: 1) { endCursor content { id } } }').data.HumanConnection
+
+        when:
+        def result = executor.execute(QUERY, [first: 2, after: idPage.endCursor])
+
+        then:
+        result.errors
+        result.data.HumanConnection == null
+    }
+}
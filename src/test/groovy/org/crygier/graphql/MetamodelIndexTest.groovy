@@ -0,0 +1,87 @@
+package org.crygier.graphql
+
+import org.crygier.graphql.model.starwars.Droid
+import org.crygier.graphql.model.starwars.Human
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import spock.lang.Specification
+
+import javax.persistence.EntityManager
+import javax.persistence.EntityManagerFactory
+import javax.persistence.metamodel.Attribute
+
+@SpringBootTest(classes = TestApplication)
+class MetamodelIndexTest extends Specification {
+
+    @Autowired
+    private EntityManager entityManager
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory
+
+    def 'Entities are found by name, class and proxy class'() {
+        given:
+        def index = new MetamodelIndex(entityManager.metamodel)
+        def referenceManager = entityManagerFactory.createEntityManager()
+        def proxyClass = referenceManager.getReference(Droid, 2000).getClass()
+
+        expect:
+        index.getEntityType('Human').javaType == Human
+        index.getEntityType(Human).name == 'Human'
+        proxyClass != Droid
+        index.getEntityType(proxyClass).javaType == Droid
+        index.getEntityType(String) == null
+        index.getIdAttribute(index.getEntityType('Droid')).name == 'id'
+
+        cleanup:
+        referenceManager.close()
+    }
+
+    def 'Identifiers are read from proxies without initializing them'() {
+        given:
+        def index = new MetamodelIndex(entityManager.metamodel)
+        def persistenceUnitUtil = entityManagerFactory.persistenceUnitUtil
+        def referenceManager = entityManagerFactory.createEntityManager()
+        def proxy = referenceManager.getReference(Droid, 2000)
+
+        when:
+        def id = index.getIdentifier(proxy, persistenceUnitUtil)
+        def loadedBefore = persistenceUnitUtil.isLoaded(proxy)
+        def name = index.getAttribute(Droid, 'name').getValue(index.unproxy(proxy))
+
+        then:
+        id == 2000
+        !loadedBefore
+        name == 'C-3PO'
+
+        cleanup:
+        referenceManager.close()
+    }
+
+    def 'Attributes know their relationship and owning side'() {
+        given:
+        def index = new MetamodelIndex(entityManager.metamodel)
+
+        when:
+        def admirers = index.getAttribute(Droid, 'admirers')
+        def favoriteDroid = index.getAttribute(Human, 'favoriteDroid')
+        def friends = index.getAttribute(Human, 'friends')
+        def appearsIn = index.getAttribute(Human, 'appearsIn')
+
+        then:
+        admirers.persistentAttributeType == Attribute.PersistentAttributeType.ONE_TO_MANY
+        admirers.mappedBy == 'favoriteDroid'
+        !admirers.owningSide
+        admirers.collection
+
+        favoriteDroid.persistentAttributeType == Attribute.PersistentAttributeType.MANY_TO_ONE
+        favoriteDroid.owningSide
+        !favoriteDroid.collection
+
+        friends.persistentAttributeType == Attribute.PersistentAttributeType.MANY_TO_MANY
+        friends.association
+
+        !appearsIn.association
+        index.getAttribute(Human, 'unknown') == null
+    }
+}
@@ -0,0 +1,113 @@
+package org.crygier.graphql
+
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class ParallelRootFieldsTest extends ExecutorSpecification {
+
+    private ExecutorService pool = Executors.newFixedThreadPool(4)
+
+    private AtomicInteger tasks = new AtomicInteger()
+
+    def setup() {
+        configure(rootFieldExecutor: { Runnable task -> tasks.incrementAndGet(); pool.execute(task) } as Executor)
+    }
+
+    def cleanup() {
+        pool.shutdown()
+    }
+
+    def 'Root fields are resolved on the executor with the same results'() {
+        given:
+        def query = '''
+        {
+            Human(id: [1000, 1001]) {
+                name(orderBy: ASC)
+                favoriteDroid {
+                    name
+                }
+                friends {
+                    name(orderBy: ASC)
+                }
+            }
+            Droid {
+                name(orderBy: ASC)
+                appearsIn
+                admirers {
+                    name(orderBy: ASC)
+                }
+            }
+            CodeList(type: "org.crygier.graphql.model.starwars.Gender") {
+                code(orderBy: ASC)
+            }
+        }
+        '''
+
+        when:
+        def parallel = executor.execute(query)
+        executor.rootFieldExecutor = null
+        def sequential = executor.execute(query)
+
+        then:
+        parallel.errors.isEmpty()
+        parallel.data == sequential.data
+        parallel.data.Human*.name == ['Darth Vader', 'Luke Skywalker']
+        parallel.data.Human[1].friends*.name == ['C-3PO', 'Han Solo', 'Leia Organa', 'R2-D2']
+        parallel.data.Droid[0].admirers*.name == ['Leia Organa', 'Luke Skywalker']
+        parallel.data.Droid[0].appearsIn.size() == 4
+        tasks.get() == 2
+    }
+
+    def 'Aliased root fields of the same entity are batched separately'() {
+        given:
+        configure(batchFetching: true)
+        def query = '''
+        {
+            luke: Human(id: 1000) {
+                name
+                friends {
+                    name(orderBy: ASC)
+                }
+            }
+            vader: Human(id: 1001) {
+                name
+                friends {
+                    name(orderBy: ASC)
+                }
+            }
+            page: HumanConnection(paginationRequest: { page: 1, size: 2 }) {
+                totalElements
+                content {
+                    name(orderBy: ASC)
+                    friends {
+                        name(orderBy: ASC)
+                    }
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query)
+
+        then:
+        result.errors.isEmpty()
+        result.data.luke == [[name: 'Luke Skywalker', friends: [[name: 'C-3PO'], [name: 'Han Solo'], [name: 'Leia Organa'], [name: 'R2-D2']]]]
+        result.data.vader == [[name: 'Darth Vader', friends: [[name: 'Wilhuff Tarkin']]]]
+        result.data.page.totalElements == 6
+        result.data.page.content*.name == ['Darth Maul', 'Darth Vader']
+        result.data.page.content[1].friends == [[name: 'Wilhuff Tarkin']]
+        tasks.get() == 2
+    }
+
+    def 'A single root field is resolved on the calling thread'() {
+        when:
+        def result = executor.execute('{ Droid(name: "R2-D2") { name } }')
+
+        then:
+        result.data == [Droid: [[name: 'R2-D2']]]
+        tasks.get() == 0
+    }
+}
@@ -0,0 +1,132 @@
+package org.crygier.graphql
+
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import spock.lang.Specification
+
+import javax.persistence.EntityManager
+import java.nio.file.Files
+
+@SpringBootTest(classes = TestApplication)
+class PersistedQueryTest extends Specification {
+
+    @Autowired
+    private GraphQLExecutor executor
+
+    @Autowired
+    private EntityManager entityManager
+
+    def 'Unknown hashes ask the client for the query'() {
+        when:
+        def result = executor.execute(null, PersistedQueryRegistry.hash('{ Droid { name } }x'), null)
+
+        then:
+        result.data == null
+        result.errors*.message == [PersistedQueryError.PERSISTED_QUERY_NOT_FOUND]
+    }
+
+    def 'Queries sent with their hash can be executed by the hash alone'() {
+        given:
+        def query = '''
+        {
+            Droid(name: "R2-D2") {
+                name
+                primaryFunction
+            }
+        }
+        '''
+        def hash = PersistedQueryRegistry.hash(query)
+        def expected = [Droid: [[name: 'R2-D2', primaryFunction: 'Astromech']]]
+
+        when:
+        def registered = executor.execute(query, hash, null).data
+        def persisted = executor.execute(null, hash, null).data
+
+        then:
+        registered == expected
+        persisted == expected
+        executor.persistedQueries.getQuery(hash) == query
+    }
+
+    def 'Queries that do not match their hash are rejected'() {
+        when:
+        def result = executor.execute('{ Droid { name } }', PersistedQueryRegistry.hash('{ Human { name } }'), null)
+
+        then:
+        result.data == null
+        result.errors*.message == [PersistedQueryError.HASH_MISMATCH]
+    }
+
+    def 'Registered queries are compiled ahead of their first execution'() {
+        given:
+        def query = '''
+        query humanQuery($id: [Int!]) {
+            Human(id: $id) {
+                name
+                homePlanet
+            }
+            HumanConnection(paginationRequest: { page: 1, size: 2}) {
+                totalElements
+                content {
+                    name(orderBy: ASC)
+                }
+            }
+        }
+        '''
+        def queryPlanCache = executor.queryPlanCache
+        def documentCache = executor.documentCache
+        queryPlanCache.clear()
+
+        when:
+        def hash = executor.persistedQueries.register(query)
+        def planMissCount = queryPlanCache.missCount
+        def documentMissCount = documentCache.missCount
+        def result = executor.execute(null, hash, [id: 1001]).data
+
+        then:
+        queryPlanCache.size() == 3
+        result == [
+                Human: [[name: 'Darth Vader', homePlanet: 'Tatooine']],
+                HumanConnection: [
+                        totalElements: 6,
+                        content: [[name: 'Darth Maul'], [name: 'Darth Vader']]
+                ]
+        ]
+        queryPlanCache.missCount == planMissCount
+        documentCache.missCount == documentMissCount
+    }
+
+    def 'Invalid queries cannot be registered'() {
+        when:
+        executor.persistedQueries.register('{ Droid { unknownField } }')
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def 'Registered queries can be saved and loaded by another registry'() {
+        given:
+        def query = '''
+        {
+            Human(id: 1000) {
+                name
+            }
+        }
+        '''
+        def file = Files.createTempFile('persisted-queries', '.txt')
+        def registry = executor.persistedQueries
+        def hash = registry.register(query)
+        def loaded = new PersistedQueryRegistry(new GraphQLSchemaBuilder(entityManager).graphQLSchema, new PreparsedDocumentCache())
+
+        when:
+        registry.save(file)
+        loaded.load(file)
+
+        then:
+        loaded.size() == registry.size()
+        loaded.getQuery(hash) == query
+
+        cleanup:
+        Files.deleteIfExists(file)
+    }
+}
@@ -0,0 +1,90 @@
+package org.crygier.graphql
+
+import graphql.execution.preparsed.PreparsedDocumentEntry
+import graphql.language.Document
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import spock.lang.Specification
+
+@SpringBootTest(classes = TestApplication)
+class PreparsedDocumentCacheTest extends Specification {
+
+    @Autowired
+    private GraphQLExecutor executor
+
+    def 'Repeated queries are parsed once'() {
+        given:
+        def query = '''
+        {
+            Droid(name: "C-3PO") {
+                name
+            }
+        }
+        '''
+        def documentCache = executor.documentCache
+        documentCache.clear()
+        def hitCount = documentCache.hitCount
+        def missCount = documentCache.missCount
+
+        when:
+        def first = executor.execute(query).data
+        def second = executor.execute(query).data
+
+        then:
+        first == [Droid: [[name: 'C-3PO']]]
+        second == first
+        documentCache.size() == 1
+        documentCache.missCount == missCount + 1
+        documentCache.hitCount == hitCount + 1
+    }
+
+    def 'Cached pagination documents keep their paginationRequest'() {
+        given:
+        def query = '''
+        {
+            HumanConnection(paginationRequest: { page: 2, size: 2}) {
+                totalPages
+                content {
+                    name(orderBy: ASC)
+                }
+            }
+        }
+        '''
+        def expected = [
+                HumanConnection: [
+                        totalPages: 3,
+                        content: [[name: 'Han Solo'], [name: 'Leia Organa']]
+                ]
+        ]
+
+        when:
+        def first = executor.execute(query).data
+        def second = executor.execute(query).data
+
+        then:
+        first == expected
+        second == expected
+    }
+
+    def 'Documents are evicted according to the eviction policy'() {
+        given:
+        def documentCache = new PreparsedDocumentCache(2, evictionPolicy)
+        def entry = new PreparsedDocumentEntry(new Document())
+
+        when:
+        documentCache.get('first', { entry })
+        documentCache.get('second', { entry })
+        documentCache.get('first', { entry })
+        documentCache.get('third', { entry })
+
+        then:
+        documentCache.size() == 2
+        documentCache.hitRatio == 0.25d
+        documentCache.get('first', { null }).is(entry) == firstRetained
+
+        where:
+        evictionPolicy                                              | firstRetained
+        PreparsedDocumentCache.EvictionPolicy.LEAST_RECENTLY_USED   | true
+        PreparsedDocumentCache.EvictionPolicy.FIRST_IN_FIRST_OUT    | false
+    }
+}
@@ -0,0 +1,86 @@
+package org.crygier.graphql
+
+class ProjectionTest extends ExecutorSpecification {
+
+    def setup() {
+        configure(projection: true)
+    }
+
+    def 'Basic attributes are selected without loading entities'() {
+        given:
+        def query = '''
+        {
+            Human(homePlanet: "Tatooine") {
+                planet: homePlanet
+                name(orderBy: DESC)
+                __typename
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [
+                Human: [
+                        [planet: 'Tatooine', name: 'Luke Skywalker', __typename: 'Human'],
+                        [planet: 'Tatooine', name: 'Darth Vader', __typename: 'Human']
+                ]
+        ]
+        statistics().entityLoadCount == 0
+    }
+
+    def 'Pages are projected'() {
+        given:
+        def query = '''
+        {
+            DroidConnection(paginationRequest: { page: 1, size: 1 }) {
+                totalElements
+                content {
+                    name(orderBy: ASC)
+                    primaryFunction
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [DroidConnection: [totalElements: 2, content: [[name: 'C-3PO', primaryFunction: 'Protocol']]]]
+        statistics().entityLoadCount == 0
+    }
+
+    def 'Selections with associations still load entities'() {
+        given:
+        def query = '''
+        {
+            Human(id: 1000) {
+                name
+                favoriteDroid {
+                    name
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == [Human: [[name: 'Luke Skywalker', favoriteDroid: [name: 'C-3PO']]]]
+        statistics().entityLoadCount > 0
+    }
+
+    def 'Selections of only __typename still load entities'() {
+        when:
+        def result = executor.execute('{ Human(id: 1000) { __typename } }')
+
+        then:
+        result.errors.isEmpty()
+        result.data == [Human: [[__typename: 'Human']]]
+        statistics().entityLoadCount > 0
+    }
+}
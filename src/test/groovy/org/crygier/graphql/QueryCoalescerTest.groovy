@@ -0,0 +1,143 @@
+package org.crygier.graphql
+
+import graphql.ExecutionResult
+import graphql.ExecutionResultImpl
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class QueryCoalescerTest extends ExecutorSpecification {
+
+    private String user = 'luke'
+
+    def 'Identical queries within the window share an execution'() {
+        given:
+        configure(queryCoalescer: new QueryCoalescer(1, TimeUnit.MINUTES, { user }))
+        def query = 'query ($name: [String]) { Human(name: $name) { name friends { name } } }'
+
+        when:
+        def first = executor.executeAsync(query, [name: ['Luke Skywalker']]).join()
+        def second = executor.executeAsync(query, [name: ['Luke Skywalker']]).join()
+        def third = executor.executeAsync(query, [name: ['Luke Skywalker']]).join()
+
+        then:
+        first.data.Human[0].name == 'Luke Skywalker'
+        second.is(first)
+        third.is(first)
+        //Luke, and his friends
+        statistics().queryExecutionCount == 2
+        executor.queryCoalescer.executionCount == 1
+        executor.queryCoalescer.coalescedCount == 2
+    }
+
+    def 'Queries in the caller\'s transaction are not shared'() {
+        given:
+        configure(queryCoalescer: new QueryCoalescer(1, TimeUnit.MINUTES, { user }))
+        def query = '{ Human(id: 1000) { name } }'
+
+        when:
+        def shared = executor.executeAsync(query, [:]).join()
+        def first = executor.execute(query)
+        def second = executor.execute(query, [:])
+
+        then:
+        first.data == shared.data
+        !first.is(shared)
+        !second.is(first)
+        statistics().queryExecutionCount == 3
+        executor.queryCoalescer.executionCount == 1
+        executor.queryCoalescer.coalescedCount == 0
+    }
+
+    def 'Queries are not shared across security contexts, variables, or errors'() {
+        given:
+        configure(queryCoalescer: new QueryCoalescer(1, TimeUnit.MINUTES, { user }))
+        def query = 'query ($name: [String]) { Human(name: $name) { name } }'
+
+        when:
+        def luke = executor.executeAsync(query, [name: ['Luke Skywalker']]).join()
+        user = 'vader'
+        def vader = executor.executeAsync(query, [name: ['Luke Skywalker']]).join()
+        def other = executor.executeAsync(query, [name: ['Darth Vader']]).join()
+        def invalid = executor.executeAsync('{ Human { unknown } }', [:]).join()
+        def invalidAgain = executor.executeAsync('{ Human { unknown } }', [:]).join()
+
+        then:
+        !vader.is(luke)
+        vader.data == luke.data
+        other.data.Human[0].name == 'Darth Vader'
+        !invalidAgain.is(invalid)
+        invalidAgain.errors.size() == 1
+        //invalid queries aren't executed, so they aren't coalesced
+        executor.queryCoalescer.executionCount == 3
+        executor.queryCoalescer.coalescedCount == 0
+    }
+
+    def 'Queries are parsed once, for both coalescing and execution'() {
+        given:
+        configure(queryCoalescer: new QueryCoalescer(0, TimeUnit.MILLISECONDS, { user }))
+        executor.documentCache.clear()
+        def misses = executor.documentCache.missCount
+        def hits = executor.documentCache.hitCount
+
+        when:
+        executor.executeAsync('{ Human(id: 1002) { name } }', [:]).join()
+        executor.executeAsync('{ Human(id: 1002) { name } }', [:]).join()
+
+        then:
+        executor.documentCache.missCount - misses == 1
+        executor.documentCache.hitCount - hits == 3
+    }
+
+    def 'Requests join an execution in flight'() {
+        given:
+        def coalescer = new QueryCoalescer(0, TimeUnit.MILLISECONDS, { 'anyone' })
+        def started = new CountDownLatch(1)
+        def expected = new ExecutionResultImpl([Human: []], [])
+        def execution = {
+            started.countDown()
+            //complete once the other request waits for the result
+            while (coalescer.coalescedCount == 0) {
+                Thread.sleep(5)
+            }
+            expected
+        }
+
+        when:
+        def leader = CompletableFuture.supplyAsync { coalescer.execute('{ Human { name } }', [:], execution) }
+        started.await()
+        def follower = coalescer.execute('{ Human { name } }', [:], { throw new IllegalStateException('Executed twice') })
+        def later = coalescer.execute('{ Human { name } }', [:], { new ExecutionResultImpl([Human: []], []) as ExecutionResult })
+
+        then:
+        leader.get(10, TimeUnit.SECONDS).is(expected)
+        follower.is(expected)
+        //nothing is shared after the execution without a window
+        !later.is(expected)
+        coalescer.executionCount == 2
+        coalescer.coalescedCount == 1
+    }
+
+    def 'Failures are passed on to the requests that joined'() {
+        given:
+        def coalescer = new QueryCoalescer(0, TimeUnit.MILLISECONDS, { 'anyone' })
+        def started = new CountDownLatch(1)
+        def execution = {
+            started.countDown()
+            while (coalescer.coalescedCount == 0) {
+                Thread.sleep(5)
+            }
+            throw new IllegalStateException('Database unavailable')
+        }
+
+        when:
+        CompletableFuture.runAsync { coalescer.execute('{ Human { name } }', [:], execution) }
+        started.await()
+        coalescer.execute('{ Human { name } }', [:], { throw new AssertionError('Executed twice') })
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message == 'Database unavailable'
+    }
+}
@@ -0,0 +1,120 @@
+package org.crygier.graphql
+
+class QueryMemoTest extends ExecutorSpecification {
+
+    def setup() {
+        configure(queryMemoization: true)
+        executor.queryMemoStatistics.clear()
+    }
+
+    def 'The same ManyToOne of many parents is loaded once'() {
+        given:
+        def query = '''
+        {
+            Human {
+                name(orderBy: ASC)
+                favoriteDroid {
+                    name
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result.Human.collect { [it.name, it.favoriteDroid?.name] } == [
+                ['Darth Maul', null],
+                ['Darth Vader', 'R2-D2'],
+                ['Han Solo', null],
+                ['Leia Organa', 'C-3PO'],
+                ['Luke Skywalker', 'C-3PO'],
+                ['Wilhuff Tarkin', null]
+        ]
+        //the humans, C-3PO, R2-D2, and the humans without a favorite droid
+        statistics().queryExecutionCount == 4
+        executor.queryMemoStatistics.queryCount == 4
+        executor.queryMemoStatistics.duplicateCount == 3
+    }
+
+    def 'Aliased fields and repeated fragments share their queries'() {
+        given:
+        def query = '''
+        {
+            luke: Human(id: 1000) {
+                ...friends
+            }
+            again: Human(id: 1000) {
+                ...friends
+            }
+        }
+
+        fragment friends on Human {
+            first: friends {
+                name(orderBy: ASC)
+            }
+            second: friends {
+                name(orderBy: ASC)
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result.luke[0].first == [[name: 'C-3PO'], [name: 'Han Solo'], [name: 'Leia Organa'], [name: 'R2-D2']]
+        result.luke[0].second == result.luke[0].first
+        result.again == result.luke
+        //Luke, and his friends
+        statistics().queryExecutionCount == 2
+        executor.queryMemoStatistics.queryCount == 2
+        executor.queryMemoStatistics.duplicateCount == 4
+    }
+
+    def 'Queries with different values are not shared'() {
+        given:
+        def query = '''
+        query ($name: [String]) {
+            luke: Human(id: 1000) {
+                name
+            }
+            vader: Human(id: 1001) {
+                name
+            }
+            byName: Human(name: $name) {
+                friends {
+                    name(orderBy: ASC)
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = executor.execute(query, [name: ['Luke Skywalker', 'Darth Vader']]).data
+
+        then:
+        result.luke == [[name: 'Luke Skywalker']]
+        result.vader == [[name: 'Darth Vader']]
+        result.byName*.friends*.name as Set == [['C-3PO', 'Han Solo', 'Leia Organa', 'R2-D2'], ['Wilhuff Tarkin']] as Set
+        executor.queryMemoStatistics.queryCount == 5
+        executor.queryMemoStatistics.duplicateCount == 0
+    }
+
+    def 'Queries are not memoized across requests, nor when disabled'() {
+        given:
+        def query = '{ Human(id: 1000) { name } }'
+
+        when:
+        executor.execute(query)
+        executor.execute(query)
+        executor.queryMemoization = false
+        executor.execute(query)
+
+        then:
+        statistics().queryExecutionCount == 3
+        executor.queryMemoStatistics.queryCount == 2
+        executor.queryMemoStatistics.duplicateCount == 0
+    }
+}
@@ -0,0 +1,155 @@
+package org.crygier.graphql
+
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import spock.lang.Specification
+
+@SpringBootTest(classes = TestApplication)
+class QueryPlanCacheTest extends Specification {
+
+    @Autowired
+    private GraphQLExecutor executor
+
+    def 'Queries of the same shape share a plan'() {
+        given:
+        def query = '''
+        query humanQuery($id: [Int!]) {
+            Human(id: $id) {
+                name
+                favoriteDroid(name: "C-3PO") {
+                    name
+                }
+            }
+        }
+        '''
+        def queryPlanCache = executor.queryPlanCache
+        queryPlanCache.clear()
+        def hitCount = queryPlanCache.hitCount
+
+        when:
+        def luke = executor.execute(query, [id: 1000]).data
+        def vader = executor.execute(query, [id: 1001]).data
+
+        then:
+        luke == [Human: [[name: 'Luke Skywalker', favoriteDroid: [name: 'C-3PO']]]]
+        vader == [Human: [[name: 'Darth Vader', favoriteDroid: null]]]
+        //the humans, and their favorite droid, whose plan is shared by every parent
+        queryPlanCache.size() == 2
+        queryPlanCache.hitCount == hitCount + 2
+    }
+
+    def 'Nested plans are shared by the parents of the same association'() {
+        given:
+        def query = '''
+        {
+            Human {
+                name(orderBy: ASC)
+                favoriteDroid {
+                    name
+                }
+                friends {
+                    name(orderBy: ASC)
+                }
+            }
+            Droid {
+                name(orderBy: ASC)
+                friends {
+                    name(orderBy: ASC)
+                }
+            }
+        }
+        '''
+        def queryPlanCache = executor.queryPlanCache
+        queryPlanCache.clear()
+        def missCount = queryPlanCache.missCount
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result.Human.collect { [it.name, it.favoriteDroid?.name, it.friends*.name] } == [
+                ['Darth Maul', null, []],
+                ['Darth Vader', 'R2-D2', ['Wilhuff Tarkin']],
+                ['Han Solo', null, ['Leia Organa', 'Luke Skywalker', 'R2-D2']],
+                ['Leia Organa', 'C-3PO', ['C-3PO', 'Han Solo', 'Luke Skywalker', 'R2-D2']],
+                ['Luke Skywalker', 'C-3PO', ['C-3PO', 'Han Solo', 'Leia Organa', 'R2-D2']],
+                ['Wilhuff Tarkin', null, ['Darth Vader']]
+        ]
+        result.Droid.collect { [it.name, it.friends*.name] } == [
+                ['C-3PO', ['Han Solo', 'Leia Organa', 'Luke Skywalker', 'R2-D2']],
+                ['R2-D2', ['Han Solo', 'Leia Organa', 'Luke Skywalker']]
+        ]
+        //the roots, the friends of humans and of droids, and the favorite droids of humans with and without one
+        queryPlanCache.size() == 6
+        queryPlanCache.missCount == missCount + 6
+    }
+
+    def 'Argument values are bound to the cached plan'() {
+        given:
+        def query = { String name -> """
+        {
+            Droid(name: "${name}") {
+                name
+                primaryFunction
+            }
+        }
+        """ }
+        def queryPlanCache = executor.queryPlanCache
+        queryPlanCache.clear()
+
+        when:
+        def c3po = executor.execute(query('C-3PO')).data
+        def r2d2 = executor.execute(query('R2-D2')).data
+
+        then:
+        c3po == [Droid: [[name: 'C-3PO', primaryFunction: 'Protocol']]]
+        r2d2 == [Droid: [[name: 'R2-D2', primaryFunction: 'Astromech']]]
+        queryPlanCache.size() == 1
+    }
+
+    def 'A single value and a list of values are planned separately'() {
+        given:
+        def queryPlanCache = executor.queryPlanCache
+        queryPlanCache.clear()
+
+        when:
+        def single = executor.execute('{ Human(id: 1000) { name } }').data
+        def multiple = executor.execute('{ Human(id: [1000, 1001]) { name(orderBy: ASC) } }').data
+
+        then:
+        single == [Human: [[name: 'Luke Skywalker']]]
+        multiple == [Human: [[name: 'Darth Vader'], [name: 'Luke Skywalker']]]
+        queryPlanCache.size() == 2
+    }
+
+    def 'Lists of values are padded to a few lengths'() {
+        when:
+        def result = executor.execute('{ Human(id: [1000, 1001, 1002]) { name(orderBy: ASC) } }').data
+
+        then:
+        result == [Human: [[name: 'Darth Vader'], [name: 'Han Solo'], [name: 'Luke Skywalker']]]
+        JpaDataFetcher.padInList([1, 2]) == [1, 2]
+        JpaDataFetcher.padInList([1, 2, 3]) == [1, 2, 3, 3]
+        JpaDataFetcher.padInList([1, 2, 3, 4]) == [1, 2, 3, 4]
+        JpaDataFetcher.padInList([1, 2, 3, 4, 5]) == [1, 2, 3, 4, 5, 5, 5, 5]
+    }
+
+    def 'Least recently used plans are evicted'() {
+        given:
+        def queryPlanCache = new QueryPlanCache(2)
+        def plan = new QueryPlan(null, [])
+
+        when:
+        queryPlanCache.put('first', plan)
+        queryPlanCache.put('second', plan)
+        queryPlanCache.get('first')
+        queryPlanCache.put('third', plan)
+
+        then:
+        queryPlanCache.size() == 2
+        queryPlanCache.get('first') == plan
+        queryPlanCache.get('second') == null
+        queryPlanCache.missCount == 1
+        queryPlanCache.hitCount == 2
+    }
+}
@@ -2,20 +2,14 @@ package org.crygier.graphql
 
 import org.crygier.graphql.model.starwars.Episode
 import org.springframework.beans.factory.annotation.Autowired
-import org.springframework.boot.test.context.SpringBootTest
 import org.springframework.context.annotation.Configuration
 import org.springframework.test.context.ContextConfiguration
 import org.springframework.transaction.annotation.Transactional
-import spock.lang.Specification
 
 import javax.persistence.EntityManager
 
 //@Configuration
-@SpringBootTest(classes = TestApplication)
-class StarwarsQueryExecutorTest extends Specification {
-
-    @Autowired
-    private GraphQLExecutor executor;
+class StarwarsQueryExecutorTest extends ExecutorSpecification {
 
     def 'Gets just the names of all droids'() {
         given:
@@ -454,6 +448,37 @@ class StarwarsQueryExecutorTest extends Specification {
         result == expected
     }
 
+    def 'ManyToOne identifier is resolved without a query'() {
+        given:
+        def query = '''
+        {
+            Human {
+                name (orderBy: ASC)
+                favoriteDroid {
+                    id
+                }
+            }
+        }
+        '''
+        def expected = [
+            Human:[
+                [name:'Darth Maul', favoriteDroid:null],
+                [name:'Darth Vader', favoriteDroid:[id:2001]],
+                [name:'Han Solo', favoriteDroid:null],
+                [name:'Leia Organa', favoriteDroid:[id:2000]],
+                [name:'Luke Skywalker', favoriteDroid:[id:2000]],
+                [name:'Wilhuff Tarkin', favoriteDroid:null]
+            ]
+        ]
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == expected
+        statistics().queryExecutionCount == 1
+    }
+
     def 'Pagination without content'() {
         given:
         def query = '''
@@ -684,6 +709,35 @@ class StarwarsQueryExecutorTest extends Specification {
         result == expected;
     }
 
+    def 'Query by Collection of Enums matching several elements, with a collection selected'() {
+        given:
+        def query = '''
+        {
+          Human(appearsIn: [A_NEW_HOPE, EMPIRE_STRIKES_BACK]) {
+            name (orderBy: ASC)
+            friends {
+              name (orderBy: ASC)
+            }
+          }
+        }
+        '''
+        def expected = [
+                Human: [
+                    [ name: 'Darth Vader', friends: [[name: 'Wilhuff Tarkin']] ],
+                    [ name: 'Han Solo', friends: [[name: 'Leia Organa'], [name: 'Luke Skywalker'], [name: 'R2-D2']] ],
+                    [ name: 'Leia Organa', friends: [[name: 'C-3PO'], [name: 'Han Solo'], [name: 'Luke Skywalker'], [name: 'R2-D2']] ],
+                    [ name: 'Luke Skywalker', friends: [[name: 'C-3PO'], [name: 'Han Solo'], [name: 'Leia Organa'], [name: 'R2-D2']] ],
+                    [ name: 'Wilhuff Tarkin', friends: [[name: 'Darth Vader']] ]
+                ]
+        ]
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == expected
+    }
+
     def 'Query by restricting sub-object'() {
         given:
 		
@@ -1057,6 +1111,31 @@ class StarwarsQueryExecutorTest extends Specification {
         when:
         def result = executor.execute(query).data
 
+        then:
+        result == expected
+    }
+
+	def 'Nested filter values from variables'() {
+        given:
+        def query = '''
+        query humanQuery($name: [String], $friendName: [String]) {
+            Human(name: $name) {
+                name
+                friends(joinType: INNER, name: $friendName) {
+                    name
+                }
+            }
+        }
+        '''
+        def expected = [
+			Human: [
+				[name:'Luke Skywalker', friends:[[name:'Leia Organa']]]
+			]
+        ]
+
+        when:
+        def result = executor.execute(query, [name: ['Luke Skywalker'], friendName: ['Leia Organa']]).data
+
         then:
         result == expected
     }
@@ -2,6 +2,7 @@ package org.crygier.graphql
 
 import graphql.Scalars
 import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLObjectType
 import graphql.schema.GraphQLSchema
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.boot.test.context.SpringBootTest
@@ -42,4 +43,15 @@ class StarwarsSchemaBuildTest extends Specification {
         schema.getQueryType().getFieldDefinition("CodeList").getArgument("code").getType() == type
     }
 
+    def 'Basic attributes are read through their indexed accessors'() {
+        when:
+        GraphQLSchema schema = builder.getGraphQLSchema();
+        def humanType = (GraphQLObjectType) schema.getType("Human")
+
+        then:
+        humanType.getFieldDefinition("name").dataFetcher instanceof AttributeDataFetcher
+        humanType.getFieldDefinition("appearsIn").dataFetcher instanceof AttributeDataFetcher
+        humanType.getFieldDefinition("friends").dataFetcher instanceof JpaDataFetcher
+    }
+
 }
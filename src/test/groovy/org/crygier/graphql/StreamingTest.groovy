@@ -0,0 +1,155 @@
+package org.crygier.graphql
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+
+class StreamingTest extends ExecutorSpecification {
+
+    def setup() {
+        configure(streamChunkSize: 2)
+    }
+
+    private Map stream(String query, Map<String, Object> variables = null, Writer writer = new StringWriter()) {
+        executor.executeStreaming(query, variables, writer)
+        return new JsonSlurper().parseText(writer.toString()) as Map
+    }
+
+    //the values of the results read back from JSON
+    private static Object json(Object value) {
+        return new JsonSlurper().parseText(JsonOutput.toJson(value))
+    }
+
+    def 'Root fields are streamed in chunks by identifier'() {
+        given:
+        def query = '''
+        {
+            Human {
+                id
+                name
+                friends {
+                    name(orderBy: ASC)
+                    appearsIn
+                }
+            }
+        }
+        '''
+        def writer = new FlushCountingWriter()
+
+        when:
+        def result = stream(query, null, writer)
+
+        then:
+        result.errors == null
+        result.data.Human.size() == 6
+        result.data.Human*.id == result.data.Human*.id.sort()
+        result.data.Human == json(executor.execute(query).data.Human.sort { it.id })
+        result.data.Human.find { it.name == 'Luke Skywalker' }.friends*.name == ['C-3PO', 'Han Solo', 'Leia Organa', 'R2-D2']
+        //three full chunks, an empty one that ends the stream, and the end of the result
+        writer.flushes == 5
+    }
+
+    def 'Ordered root fields are streamed in chunks by keyset'() {
+        given:
+        def query = { String direction -> """
+        {
+            Human {
+                name
+                homePlanet(orderBy: ${direction})
+            }
+        }
+        """ }
+
+        when:
+        def ascending = stream(query('ASC'))
+        def ascendingQueries = statistics().queries.size()
+        def descending = stream(query('DESC'))
+
+        then:
+        ascending.data.Human*.name == ['Han Solo', 'Wilhuff Tarkin', 'Darth Maul', 'Leia Organa', 'Luke Skywalker', 'Darth Vader']
+        descending.data.Human*.name == ['Darth Vader', 'Luke Skywalker', 'Leia Organa', 'Darth Maul', 'Wilhuff Tarkin', 'Han Solo']
+        //chunks start after the sort key and identifier of the previous one (first a null, then a value), not at an offset
+        ascendingQueries == 3
+    }
+
+    def 'Root fields ordered by several fields are streamed in chunks by offset'() {
+        given:
+        def query = '''
+        {
+            Human {
+                homePlanet(orderBy: DESC)
+                name(orderBy: ASC)
+            }
+        }
+        '''
+
+        when:
+        def result = stream(query)
+
+        then:
+        result.errors == null
+        result.data.Human*.name == ['Darth Vader', 'Luke Skywalker', 'Leia Organa', 'Darth Maul', 'Han Solo', 'Wilhuff Tarkin']
+    }
+
+    def 'Ordered root fields with associations are streamed like their query'() {
+        given:
+        configure(batchFetching: true)
+        def query = '''
+        {
+            humans: Human {
+                name(orderBy: DESC)
+                gender(joinType: INNER, code: "Male") {
+                    code
+                }
+                favoriteDroid {
+                    name
+                }
+            }
+        }
+        '''
+
+        when:
+        def result = stream(query)
+
+        then:
+        result.errors == null
+        result.data.humans.size() > 2
+        result.data.humans == json(executor.execute(query).data.humans)
+    }
+
+    def 'Queries that cannot be streamed are written whole'() {
+        when:
+        def page = stream('{ HumanConnection(paginationRequest: { page: 1, size: 2 }) { totalElements content { name } } }')
+        def several = stream('{ Human(id: 1000) { name } Droid(id: 2001) { name } }')
+        def invalid = stream('{ Human { unknown } }')
+
+        then:
+        page.data.HumanConnection.totalElements == 6
+        page.data.HumanConnection.content.size() == 2
+        several.data == [Human: [[name: 'Luke Skywalker']], Droid: [[name: 'R2-D2']]]
+        invalid.data == null
+        invalid.errors.size() == 1
+    }
+
+    def 'Values are escaped in the written JSON'() {
+        given:
+        def writer = new StringWriter()
+
+        when:
+        JsonWriter.write([text: 'a "quoted"\n\\ value\u0001', number: 1.5, list: [true, null]], writer)
+
+        then:
+        writer.toString() == '{"text":"a \\"quoted\\"\\n\\\\ value\\u0001","number":1.5,"list":[true,null]}'
+        new JsonSlurper().parseText(writer.toString()).text == 'a "quoted"\n\\ value\u0001'
+    }
+
+    static class FlushCountingWriter extends StringWriter {
+
+        int flushes
+
+        @Override
+        void flush() {
+            flushes++
+            super.flush()
+        }
+    }
+}
@@ -82,6 +82,29 @@ class ThingQueryExecutorTest extends Specification {
         result == expected
     }
 
+    def 'Query for things by multiple ids'() {
+        given:
+        def query = '''
+        {
+          Thing(id: ["00000000-0000-0000-0000-000000000000", "2d1ebc5b-7d27-4197-9cf0-e84451c5bbb1"]) {
+            id
+            type
+          }
+        }
+        '''
+        def expected = [
+                Thing: [
+                        [ id: UUID.fromString("2d1ebc5b-7d27-4197-9cf0-e84451c5bbb1"), type:'Thing1' ]
+                ]
+        ]
+
+        when:
+        def result = executor.execute(query).data
+
+        then:
+        result == expected
+    }
+
     def 'Query with alias'() {
         given:
         def query = '''